@@ -0,0 +1,2 @@
+db.getCollection('lool_storage_garbage').createIndex({next: 1});
+db.getCollection('lool_storage_garbage').createIndex({lease: 1}, {sparse: true});
\ No newline at end of file
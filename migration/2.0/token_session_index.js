@@ -0,0 +1,11 @@
+// Live tokens are unique by user, document and session: mark them, keep the latest one of each duplicated session
+db.getCollection('wopi_token').updateMany({valid: {$exists: false}}, {$set: {live: true}});
+db.getCollection('wopi_token').aggregate([
+    {$match: {live: true}},
+    {$sort: {date: -1}},
+    {$group: {_id: {user: "$user", document: "$document", sessionId: "$sessionId"}, ids: {$push: "$_id"}, count: {$sum: 1}}},
+    {$match: {count: {$gt: 1}}}
+]).forEach(function (session) {
+    db.getCollection('wopi_token').updateMany({_id: {$in: session.ids.slice(1)}}, {$set: {valid: false}, $unset: {live: ""}});
+});
+db.getCollection('wopi_token').createIndex({user: 1, document: 1, sessionId: 1}, {unique: true, partialFilterExpression: {live: true}});
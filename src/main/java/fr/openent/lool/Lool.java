@@ -1,26 +1,20 @@
 package fr.openent.lool;
 
-import fr.openent.lool.bean.WopiConfig;
 import fr.openent.lool.controller.LoolController;
 import fr.openent.lool.controller.MonitoringController;
 import fr.openent.lool.controller.WopiController;
-import fr.openent.lool.exception.InvalidWopiProviderException;
-import fr.openent.lool.exception.InvalidWopiServerException;
-import fr.openent.lool.helper.WopiHelper;
+import fr.openent.lool.helper.EventLoopMonitor;
+import fr.openent.lool.helper.MonitoringStream;
+import fr.openent.lool.helper.NodeAffinity;
+import fr.openent.lool.helper.ProviderReloader;
+import fr.openent.lool.provider.ProvidersSnapshot;
 import fr.openent.lool.provider.Wopi;
-import fr.openent.lool.provider.WopiProvider;
-import fr.openent.lool.provider.WopiProviderFactory;
 import fr.openent.lool.provider.WopisProviders;
+import fr.openent.lool.service.SharedServices;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.json.JsonObject;
 import org.entcore.common.http.BaseServer;
-import org.entcore.common.storage.Storage;
-import org.entcore.common.storage.StorageFactory;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
 
 public class Lool extends BaseServer {
 
@@ -29,70 +23,37 @@ public class Lool extends BaseServer {
     @Override
     public void start(Promise<Void> startPromise) throws Exception {
         super.start(startPromise);
-
-        final JsonObject wopi = config.getJsonObject("wopi", new JsonObject());
-        final List<Wopi> wopiDiscover = new ArrayList<>();
-
-        if (wopi.containsKey("providers")) {
-            final JsonObject providers = wopi.getJsonObject("providers", new JsonObject());
-            for (String providerId : providers.getMap().keySet()) {
-                WopiConfig wopiConfig;
-                WopiProvider provider;
-
-                try {
-                    wopiConfig = WopiConfig.from(providers.getJsonObject(providerId));
-                    provider = WopiProviderFactory.provider(wopiConfig.type(), wopiConfig.server());
-                } catch (NullPointerException e) {
-                    throw new InvalidWopiServerException(e);
-                }
-
-                if (Objects.isNull(provider)) {
-                    throw new InvalidWopiProviderException();
-                }
-
-                final Wopi wopiService = new Wopi(provider, wopiConfig, new WopiHelper(vertx,wopiConfig.server(), wopiConfig.type(),providerId), providerId);
-
-                final JsonObject mappings = wopi.getJsonObject("mappings", new JsonObject());
-                for (String host : mappings.getMap().keySet()) {
-                    if (providerId.equals(mappings.getString(host))) {
-                        WopisProviders.addProvider(host, wopiService);
-                    }
-                }
-                wopiDiscover.add(wopiService);
-            }
-        } else {
-            WopiConfig wopiConfig;
-            WopiProvider provider;
-            final String providerId = "wopi1";
-
-            try {
-                wopiConfig = WopiConfig.from(wopi);
-                provider = WopiProviderFactory.provider(wopiConfig.type(), wopiConfig.server());
-            } catch (NullPointerException e) {
-                throw new InvalidWopiServerException(e);
-            }
-
-            if (Objects.isNull(provider)) {
-                throw new InvalidWopiProviderException();
-            }
-
-            final Wopi wopiService = new Wopi(provider, wopiConfig, new WopiHelper(vertx, wopiConfig.server(), wopiConfig.type(), providerId), providerId);
-            final String host = config.getString("host").split("//")[1];
-            WopisProviders.addProvider(host, wopiService);
-            wopiDiscover.add(wopiService);
+        // Several instances may be deployed: JVM wide services are shared, the first instance runs maintenance tasks
+        final boolean leader = SharedServices.elect(this);
+        final SharedServices services = SharedServices.get(vertx, config);
+        EventLoopMonitor.start(vertx, config.getJsonObject("event-loop-monitor", new JsonObject()));
+        NodeAffinity.configure(config.getJsonObject("node-affinity", new JsonObject()));
+
+        final ProvidersSnapshot providers = ProvidersSnapshot.build(vertx, config.getJsonObject("wopi", new JsonObject()),
+                config.getString("host"), services, leader);
+        providers.publish(context);
+        if (leader) {
+            providers.configureBulkheads();
         }
+        new ProviderReloader(vertx, config.getString("host"), services, providers, leader,
+                config.getJsonObject("provider-reload", new JsonObject()));
 
         EventBus eb = vertx.eventBus();
-        Storage storage = new StorageFactory(vertx, config).getStorage();
-        LoolController loolController = new LoolController(eb, storage);
+        LoolController loolController = new LoolController(eb, services.storage(), services.documentService(), services.fileService(),
+                services.imageService(), services.templateService(), services.templatePool());
         addController(loolController);
-        addController(new WopiController(eb, storage));
-        addController(new MonitoringController());
+        addController(new WopiController(services.documentService(), services.fileService(), services.saveService()));
+        addController(new MonitoringController(services.monitoringService(), services.monitoringSnapshot(),
+                new MonitoringStream(vertx, services.monitoringSnapshot(), config.getJsonObject("monitoring", new JsonObject()))));
 
         startPromise.tryComplete();
         startPromise.tryFail("[LOOL@Lool::start] Fail to start Lool");
 
-        for (Wopi wp : wopiDiscover) {
+        if (!leader) {
+            return;
+        }
+        services.templateService().refresh(providers.templates(), status -> log.info("Libre Office Online templates " + (Boolean.TRUE.equals(status) ? "OK" : "KO")));
+        for (Wopi wp : providers.providers()) {
             vertx.setTimer(WAITING_TIME, aLong -> wp.helper().discover(wp, status -> log.info(wp.config().type().name() + " discover " + wp.id() + (Boolean.TRUE.equals(status) ? " OK" : " KO"))));
         }
         vertx.setTimer(WAITING_TIME, timer -> WopisProviders.getFistProvider().helper().clearTokens(status -> log.info("Libre Office Online clear token " + (status.isRight() ? "OK" : "KO"))));
@@ -8,6 +8,9 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ActionURL {
+    private static final Pattern PARAMETER = Pattern.compile("<(.*?)>");
+    private static final Pattern PARAMETER_DELIMITERS = Pattern.compile("[<>&]");
+
     private URL url;
     private Map<String, String> parameters = new HashMap<>();
 
@@ -23,10 +26,9 @@ public class ActionURL {
         ActionURL res = new ActionURL();
         res.url = new URL(urlSrc);
 
-        Pattern pattern = Pattern.compile("<(.*?)>");
-        Matcher matcher = pattern.matcher(res.url.getQuery());
+        Matcher matcher = PARAMETER.matcher(res.url.getQuery());
         while (matcher.find()) {
-            String match = matcher.group().replaceAll("[<>&]", "");
+            String match = PARAMETER_DELIMITERS.matcher(matcher.group()).replaceAll("");
             String[] split = match.split("=");
             res.parameters.put(split[1], split[0]);
         }
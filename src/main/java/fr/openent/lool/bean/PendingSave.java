@@ -0,0 +1,111 @@
+package fr.openent.lool.bean;
+
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+public class PendingSave {
+    private final String documentId;
+    private final String contentType;
+    private final String filename;
+    private final Buffer content;
+    private final boolean autoSave;
+    private final boolean exitSave;
+    private final String digest;
+    private final List<Handler<Either<String, JsonObject>>> handlers = new ArrayList<>();
+    private BooleanSupplier newer = () -> false;
+
+    /**
+     * @param documentId  Document identifier
+     * @param contentType Document content type
+     * @param filename    Document filename
+     * @param content     Saved content
+     * @param autoSave    true for auto and exit saves. They update current revision instead of creating a new one
+     * @param digest      Saved content digest
+     */
+    public PendingSave(String documentId, String contentType, String filename, Buffer content, boolean autoSave, String digest) {
+        this(documentId, contentType, filename, content, autoSave, false, digest);
+    }
+
+    /**
+     * @param documentId  Document identifier
+     * @param contentType Document content type
+     * @param filename    Document filename
+     * @param content     Saved content
+     * @param autoSave    true for auto and exit saves. They update current revision instead of creating a new one
+     * @param exitSave    true for the save sent when the last editor closes the document
+     * @param digest      Saved content digest
+     */
+    public PendingSave(String documentId, String contentType, String filename, Buffer content, boolean autoSave, boolean exitSave, String digest) {
+        this.documentId = documentId;
+        this.contentType = contentType;
+        this.filename = filename;
+        this.content = content;
+        this.autoSave = autoSave;
+        this.exitSave = exitSave;
+        this.digest = digest;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Buffer getContent() {
+        return content;
+    }
+
+    public boolean isAutoSave() {
+        return autoSave;
+    }
+
+    public boolean isExitSave() {
+        return exitSave;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return true if a newer save of the document is waiting outside of the save service, in a spool
+     */
+    public boolean hasNewer() {
+        return newer.getAsBoolean();
+    }
+
+    public PendingSave newer(BooleanSupplier newer) {
+        this.newer = newer;
+        return this;
+    }
+
+    public PendingSave onComplete(Handler<Either<String, JsonObject>> handler) {
+        this.handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Answer given save requesters with this save result. Used when this save supersedes given save
+     *
+     * @param superseded superseded save
+     */
+    public void supersede(PendingSave superseded) {
+        this.handlers.addAll(superseded.handlers);
+    }
+
+    public void complete(Either<String, JsonObject> result) {
+        handlers.forEach(handler -> handler.handle(result));
+    }
+}
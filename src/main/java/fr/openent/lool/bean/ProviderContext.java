@@ -0,0 +1,29 @@
+package fr.openent.lool.bean;
+
+import fr.openent.lool.helper.HttpHelper;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.security.MessageDigest;
+
+/**
+ * Provider context served to the frontend (provider type, capabilities, templates), encoded once with its entity tag
+ */
+public class ProviderContext {
+    private final Buffer body;
+    private final String etag;
+
+    public ProviderContext(JsonObject context) {
+        this.body = context.toBuffer();
+        MessageDigest digest = HttpHelper.digest();
+        this.etag = HttpHelper.etag(digest == null ? Integer.toHexString(context.hashCode()) : HttpHelper.hex(digest.digest(body.getBytes())));
+    }
+
+    public Buffer body() {
+        return this.body;
+    }
+
+    public String etag() {
+        return this.etag;
+    }
+}
@@ -0,0 +1,80 @@
+package fr.openent.lool.bean;
+
+import fr.openent.lool.core.constants.Field;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Document revisions retention policy. Every revision is kept during the first hours, then one revision per hour,
+ * then one revision per day. The number of kept revisions is capped. Latest revision is always kept.
+ */
+public class RetentionPolicy {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final long keepAll;
+    private final long hourly;
+    private final int maxCount;
+
+    public RetentionPolicy(JsonObject config) {
+        this.keepAll = TimeUnit.HOURS.toMillis(config.getLong("keep-all-hours", 24L));
+        this.hourly = TimeUnit.DAYS.toMillis(config.getLong("hourly-days", 7L));
+        this.maxCount = config.getInteger("max-count", 50);
+    }
+
+    /**
+     * Get revisions that are not retained by the policy
+     *
+     * @param revisions document revisions, sorted from the newest to the oldest
+     * @param now       current time in milliseconds
+     * @return Expired revisions
+     */
+    public List<JsonObject> expired(List<JsonObject> revisions, long now) {
+        List<JsonObject> expired = new ArrayList<>();
+        Set<String> buckets = new HashSet<>();
+        int kept = 0;
+        for (int i = 0; i < revisions.size(); i++) {
+            JsonObject revision = revisions.get(i);
+            long date = dateOf(revision);
+            long age = now - date;
+            boolean keep;
+            if (i == 0 || age < keepAll) {
+                keep = true;
+            } else if (age < keepAll + hourly) {
+                keep = buckets.add("h" + date / HOUR);
+            } else {
+                keep = buckets.add("d" + date / DAY);
+            }
+
+            if (keep && kept < maxCount) {
+                kept++;
+            } else {
+                expired.add(revision);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Get revision date. Date can be stored as Mongo date object or as ISO string
+     *
+     * @param revision revision
+     * @return revision date in milliseconds
+     */
+    public static long dateOf(JsonObject revision) {
+        Object date = revision.getValue(Field.DATE);
+        if (date instanceof JsonObject) {
+            Object value = ((JsonObject) date).getValue("$date");
+            if (value instanceof Number) return ((Number) value).longValue();
+            if (value instanceof String) return Instant.parse((String) value).toEpochMilli();
+        }
+        if (date instanceof Number) return ((Number) date).longValue();
+        return 0L;
+    }
+}
@@ -0,0 +1,32 @@
+package fr.openent.lool.bean;
+
+import io.vertx.core.buffer.Buffer;
+
+public class Template {
+    private final String type;
+    private final String contentType;
+    private final Buffer content;
+
+    /**
+     * @param type        Template type (file extension)
+     * @param contentType Template content type
+     * @param content     Template content
+     */
+    public Template(String type, String contentType, Buffer content) {
+        this.type = type;
+        this.contentType = contentType;
+        this.content = content;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Buffer getContent() {
+        return content;
+    }
+}
@@ -1,6 +1,7 @@
 package fr.openent.lool.bean;
 
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.utils.Bindings;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.request.CookieHelper;
@@ -15,6 +16,9 @@ import java.util.UUID;
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 
 public class Token {
+    public static final String RIGHTS = "rights";
+    public static final String READ_ONLY = "readOnly";
+
     private final String _id;
     private String user;
     private final String document;
@@ -23,6 +27,12 @@ public class Token {
     private final JsonObject date;
     private String filename;
     private boolean valid;
+    private boolean canRead;
+    private boolean canWrite;
+    private long rightsDate;
+    private boolean readOnly;
+    // Not persisted: the open reused a live token of the session instead of issuing a new one
+    private boolean reused;
 
     public Token(EventBus eb, HttpServerRequest request, Handler<Either<String, Token>> handler) {
         this.document = request.getParam(Field.ID);
@@ -58,7 +68,13 @@ public class Token {
         this.sessionId = object.getString("sessionId");
         this.displayName = object.getString("displayName");
         this.date = object.getJsonObject(Field.DATE);
+        this.filename = object.getString("filename");
         this.valid = object.getBoolean("valid", true);
+        JsonObject rights = object.getJsonObject(RIGHTS, new JsonObject());
+        this.canRead = rights.getBoolean(Field.READ, false);
+        this.canWrite = rights.getBoolean(Field.WRITE, false);
+        this.rightsDate = rights.getLong(Field.CHECKED, 0L);
+        this.readOnly = object.getBoolean(READ_ONLY, false);
     }
 
     public String getUser() {
@@ -72,7 +88,9 @@ public class Token {
                 .put("sessionId", this.sessionId)
                 .put("displayName", this.displayName)
                 .put(Field.DATE, this.date)
-                .put("filename", this.filename);
+                .put("filename", this.filename)
+                .put(RIGHTS, rightsToJSON())
+                .put(READ_ONLY, this.readOnly);
         if (this._id != null) {
             token.put(Field._ID, this._id);
         }
@@ -102,4 +120,73 @@ public class Token {
     public boolean isValid() {
         return valid;
     }
+
+    public boolean canRead() {
+        return canRead;
+    }
+
+    public boolean canWrite() {
+        return canWrite;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Restrict token to read access whatever the user rights. Used when the document is opened while the provider is
+     * near capacity
+     *
+     * @param readOnly token is restricted to read access
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    public void setReused(boolean reused) {
+        this.reused = reused;
+    }
+
+    /**
+     * Store user rights snapshot on the document. Snapshot date is set to now
+     *
+     * @param canRead  user can read the document
+     * @param canWrite user can write the document
+     */
+    public void setRights(boolean canRead, boolean canWrite) {
+        this.canRead = canRead;
+        this.canWrite = canWrite && !readOnly;
+        this.rightsDate = System.currentTimeMillis();
+    }
+
+    /**
+     * Check if rights snapshot is younger than given delay
+     *
+     * @param delay snapshot max age in milliseconds
+     * @return true if rights snapshot can be used as is
+     */
+    public boolean hasFreshRights(long delay) {
+        return rightsDate > 0 && System.currentTimeMillis() - rightsDate < delay;
+    }
+
+    /**
+     * Check snapshot right. Right should be a String from Binding enum.
+     *
+     * @param right Right the user need
+     * @return true if the snapshot grants given right
+     */
+    public boolean can(String right) {
+        return Bindings.CONTRIB.toString().equals(right) ? canWrite : canRead;
+    }
+
+    public JsonObject rightsToJSON() {
+        return new JsonObject()
+                .put(Field.READ, this.canRead)
+                .put(Field.WRITE, this.canWrite)
+                .put(Field.CHECKED, this.rightsDate);
+    }
 }
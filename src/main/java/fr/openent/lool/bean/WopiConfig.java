@@ -1,11 +1,14 @@
 package fr.openent.lool.bean;
 
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.JsonBufferWriter;
 import fr.openent.lool.provider.WopiProviders;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -15,19 +18,37 @@ import static fr.openent.lool.provider.WopiProviders.OnlyOffice;
 public class WopiConfig {
     private final WopiProviders type;
     private final URL server;
+    private final List<URL> servers;
+    private final Long health_interval;
+    private final JsonObject capacity;
     private final Map<String, Object> serverCapabilities;
+    private final Buffer serverCapabilitiesFragment;
     private final List<String> templates;
     private final Long duration_token;
+    private final Long rights_revalidation_delay;
 
     public WopiConfig(JsonObject wopiConfig) throws MalformedURLException {
         JsonObject provider = wopiConfig.getJsonObject("provider", new JsonObject());
         this.type = WopiProviders.valueOf(provider.getString("type", null));
-        this.server = new URL(provider.getString("url", null));
+        this.servers = new ArrayList<>();
+        if (provider.containsKey("urls")) {
+            for (Object url : provider.getJsonArray("urls")) {
+                this.servers.add(new URL((String) url));
+            }
+        }
+        if (this.servers.isEmpty()) {
+            this.servers.add(new URL(provider.getString("url", null)));
+        }
+        this.server = this.servers.get(0);
+        this.health_interval = provider.getLong("health-interval-seconds", 10L);
+        this.capacity = provider.getJsonObject("capacity", new JsonObject());
         this.serverCapabilities = wopiConfig.getJsonObject("server_capabilities", new JsonObject()).getMap();
+        this.serverCapabilitiesFragment = JsonBufferWriter.fragment(new JsonObject(serverCapabilities));
         List<String> defaultTemplates = this.type.equals(OnlyOffice) ? Arrays.asList(Field.DOCX, Field.PPTX, Field.XLSX) :
                 Arrays.asList(Field.ODT, Field.ODP, Field.ODS);
         this.templates = wopiConfig.containsKey("templates") ? wopiConfig.getJsonArray("templates").getList() : defaultTemplates;
         this.duration_token = wopiConfig.getLong("hour-duration-token", 10L);
+        this.rights_revalidation_delay = wopiConfig.getLong("rights-revalidation-seconds", 60L);
     }
 
     public WopiProviders type() {
@@ -38,6 +59,33 @@ public class WopiConfig {
         return this.server;
     }
 
+    /**
+     * Provider backend servers. A provider declares either a single "url" or a pool of "urls"
+     *
+     * @return backend servers
+     */
+    public List<URL> servers() {
+        return this.servers;
+    }
+
+    /**
+     * Delay between two health probes of pooled backend servers
+     *
+     * @return delay in seconds
+     */
+    public Long health_interval() {
+        return this.health_interval;
+    }
+
+    /**
+     * Backend servers capacity configuration, used for admission control of document opens
+     *
+     * @return capacity configuration
+     */
+    public JsonObject capacity() {
+        return this.capacity;
+    }
+
     public List<String> templates() {
         return this.templates;
     }
@@ -46,10 +94,28 @@ public class WopiConfig {
         return this.duration_token;
     }
 
+    /**
+     * Max age of the rights snapshot stored in a token before it is computed again
+     *
+     * @return delay in seconds
+     */
+    public Long rights_revalidation_delay() {
+        return this.rights_revalidation_delay;
+    }
+
     public Map<String, Object> serverCapabilities() {
         return this.serverCapabilities;
     }
 
+    /**
+     * Server capabilities encoded once, to be appended to CheckFileInfo responses
+     *
+     * @return JSON fields, without enclosing braces
+     */
+    public Buffer serverCapabilitiesFragment() {
+        return this.serverCapabilitiesFragment;
+    }
+
     public static WopiConfig from(JsonObject wopiConfig) throws MalformedURLException {
         return new WopiConfig(wopiConfig);
     }
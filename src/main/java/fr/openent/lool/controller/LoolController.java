@@ -2,32 +2,40 @@ package fr.openent.lool.controller;
 
 import fr.openent.lool.Lool;
 import fr.openent.lool.bean.ActionURL;
+import fr.openent.lool.bean.Template;
 import fr.openent.lool.bean.Token;
 import fr.openent.lool.bean.WopiConfig;
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.Bulkheads;
+import fr.openent.lool.helper.CapacityMonitor;
+import fr.openent.lool.helper.HttpHelper;
+import fr.openent.lool.helper.ProviderReloader;
+import fr.openent.lool.helper.TemplatePool;
 import fr.openent.lool.helper.TraceHelper;
 import fr.openent.lool.helper.WopiHelper;
 import fr.openent.lool.provider.Wopi;
 import fr.openent.lool.provider.WopisProviders;
 import fr.openent.lool.service.DocumentService;
 import fr.openent.lool.service.FileService;
-import fr.openent.lool.service.Impl.DefaultDocumentService;
-import fr.openent.lool.service.Impl.DefaultFileService;
+import fr.openent.lool.service.ImageService;
 import fr.openent.lool.service.Impl.DefaultTokenService;
+import fr.openent.lool.service.TemplateService;
 import fr.openent.lool.service.TokenService;
 import fr.openent.lool.utils.Actions;
 import fr.openent.lool.utils.Bindings;
 import fr.wseduc.rs.ApiDoc;
 import fr.wseduc.rs.Get;
+import fr.wseduc.rs.Post;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
 import fr.wseduc.webutils.Either;
-import fr.wseduc.webutils.data.FileResolver;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.request.CookieHelper;
+import fr.wseduc.webutils.request.RequestUtils;
 import io.vertx.core.Handler;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -41,9 +49,6 @@ import org.entcore.common.http.filter.SuperAdminFilter;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.user.UserUtils;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
@@ -54,14 +59,20 @@ public class LoolController extends ControllerHelper {
 
     private final DocumentService documentService;
     private final FileService fileService;
+    private final ImageService imageService;
+    private final TemplateService templateService;
+    private final TemplatePool templatePool;
     private final TokenService tokenService;
     private final EventStore eventStore;
     private final WorkspaceHelper workspaceHelper;
 
-    public LoolController(EventBus eb, Storage storage) {
+    public LoolController(EventBus eb, Storage storage, DocumentService documentService, FileService fileService, ImageService imageService, TemplateService templateService, TemplatePool templatePool) {
         super();
-        documentService = new DefaultDocumentService(eb, storage);
-        fileService = new DefaultFileService(storage);
+        this.documentService = documentService;
+        this.fileService = fileService;
+        this.imageService = imageService;
+        this.templateService = templateService;
+        this.templatePool = templatePool;
         tokenService = new DefaultTokenService();
         eventStore = EventStoreFactory.getFactory().getEventStore(Lool.class.getSimpleName());
         this.workspaceHelper = new WorkspaceHelper(eb, storage);
@@ -85,50 +96,104 @@ public class LoolController extends ControllerHelper {
     @ApiDoc("Open document in Libre Office Online")
     @SecuredAction("open.file")
     public void open(HttpServerRequest request) {
+        Bulkheads.execute(request, Bulkheads.Operation.OPEN, v -> openDocument(request));
+    }
+
+    private void openDocument(HttpServerRequest request) {
         UserUtils.getUserInfos(eb, request, user -> {
             if (user == null) {
                 unauthorized(request);
                 return;
             }
             final Wopi wopiService = WopisProviders.getProvider(Renders.getHost(request));
-            wopiService.helper().generateLoolToken(request, tokenEvent -> {
-                if (tokenEvent.isRight()) {
-                    Token token = tokenEvent.right().getValue();
-                    documentService.get(token.getDocument(), result -> {
-                        if (result.isRight()) {
-                            JsonObject document = result.right().getValue();
-                            getRedirectionUrl(request, document, wopiService, event -> {
-                                if (event.isRight()) {
-                                    Timestamp ts = Timestamp.from(Instant.now());
-                                    Duration d = Duration.ofHours(wopiService.config().duration_token());
-                                    long duration_token = d.toMillis();
-                                    JsonObject params = new JsonObject()
-                                            .put("redirection", event.right().getValue())
-                                            .put("document-id", token.getDocument())
-                                            .put("access-token", token.getId())
-                                            .put("server", wopiService.config().server().toString())
-                                            .put("resync", request.params().contains("resync") ? request.getParam("resync") : false)
-                                            .put("provider-name",wopiService.provider().type())
-                                            .put("duration-token",duration_token + ts.getTime());
-                                    renderView(request, params, "doc.html", null);
-                                    eventStore.createAndStoreEvent(Actions.ACCESS.name(), request);
-                                    TraceHelper.add(Actions.ACCESS.name(), token.getUser(), token.getDocument(), TraceHelper.getFileExtension(document.getString(Field.NAME)));
-                                } else {
-                                    renderError(request);
-                                }
-                            });
-                        } else {
-                            renderError(request);
-                        }
-                    });
-                } else {
-                    unauthorized(request);
-                }
-            });
+            String documentId = request.getParam(Field.ID);
+            String server = wopiService.helper().server(documentId);
+            CapacityMonitor.Admission admission = wopiService.helper().capacity().admit(server);
+            if (admission == CapacityMonitor.Admission.BUSY) {
+                // An editor reloading a document already open in its session reuses its token, it is not a new open.
+                // Token is saved read only so that the live token keeps its rights
+                String sessionId = CookieHelper.getInstance().getSigned("oneSessionId", request);
+                wopiService.helper().hasLiveToken(user.getUserId(), documentId, sessionId, live -> {
+                    if (Boolean.TRUE.equals(live)) {
+                        renderDocument(request, wopiService, true, null);
+                    } else {
+                        renderBusy(request, wopiService);
+                    }
+                });
+                return;
+            }
+            renderDocument(request, wopiService, admission == CapacityMonitor.Admission.READ_ONLY,
+                    admission == CapacityMonitor.Admission.OPEN ? server : null);
+        });
+    }
+
+    /**
+     * Issue document token and render editor view
+     *
+     * @param request     Server request
+     * @param wopiService Wopi provider
+     * @param readOnly    true if the document is opened read only. A reused live token keeps its rights
+     * @param admitted    Backend server the open was counted on, null if it was not counted
+     */
+    private void renderDocument(HttpServerRequest request, Wopi wopiService, boolean readOnly, String admitted) {
+        wopiService.helper().generateLoolToken(request, readOnly, tokenEvent -> {
+            if (tokenEvent.isRight()) {
+                Token token = tokenEvent.right().getValue();
+                // A reopen in the same session does not add a session on the backend server
+                if (admitted != null && token.isReused()) wopiService.helper().capacity().release(admitted);
+                documentService.get(token.getDocument(), result -> {
+                    if (result.isRight()) {
+                        JsonObject document = result.right().getValue();
+                        // Editor will call GetFile within seconds: warm the file up while the view is rendered
+                        fileService.prefetch(document.getString(Field.FILE));
+                        getRedirectionUrl(request, document, wopiService, event -> {
+                            if (event.isRight()) {
+                                Timestamp ts = Timestamp.from(Instant.now());
+                                Duration d = Duration.ofHours(wopiService.config().duration_token());
+                                long duration_token = d.toMillis();
+                                JsonObject params = new JsonObject()
+                                        .put("redirection", event.right().getValue())
+                                        .put("document-id", token.getDocument())
+                                        .put("access-token", token.getId())
+                                        .put("server", wopiService.helper().server(token.getDocument()))
+                                        .put("resync", request.params().contains("resync") ? request.getParam("resync") : false)
+                                        .put("provider-name",wopiService.provider().type())
+                                        .put("duration-token",duration_token + ts.getTime());
+                                renderView(request, params, "doc.html", null);
+                                eventStore.createAndStoreEvent(Actions.ACCESS.name(), request);
+                                TraceHelper.add(Actions.ACCESS.name(), token.getUser(), token.getDocument(), TraceHelper.getFileExtension(document.getString(Field.NAME)));
+                            } else {
+                                renderError(request);
+                            }
+                        });
+                    } else {
+                        renderError(request);
+                    }
+                });
+            } else {
+                unauthorized(request);
+            }
         });
     }
 
 
+    /**
+     * Render busy page. Provider backend server is near capacity, client should retry later
+     *
+     * @param request     Server request
+     * @param wopiService Wopi provider
+     */
+    private void renderBusy(HttpServerRequest request, Wopi wopiService) {
+        long retryAfter = wopiService.helper().capacity().retryAfter();
+        request.response()
+                .setStatusCode(503)
+                .putHeader("Retry-After", String.valueOf(retryAfter));
+        JsonObject params = new JsonObject()
+                .put("provider-name", wopiService.provider().type())
+                .put("retry-after", retryAfter);
+        renderView(request, params, "busy.html", null);
+    }
+
     /**
      * Get redirection url for Libre Office Online document
      *
@@ -137,7 +202,8 @@ public class LoolController extends ControllerHelper {
      * @param handler Function handler returning data
      */
     private void getRedirectionUrl(HttpServerRequest request, JsonObject document, Wopi wopiService, Handler<Either<String, String>> handler) {
-        wopiService.helper().getActionUrl(document.getJsonObject(Field.METADATA).getString("content-type"), null, event -> {
+        String server = wopiService.helper().server(document.getString(Field._ID));
+        wopiService.helper().getActionUrl(document.getJsonObject(Field.METADATA).getString("content-type"), null, server, event -> {
             if (event.isRight()) {
                 ActionURL actionURL = event.right().getValue();
                 handler.handle(new Either.Right<>(wopiService.provider().redirectURL(request, actionURL, document, wopiService)));
@@ -154,17 +220,22 @@ public class LoolController extends ControllerHelper {
     @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
     public void getCapabilities(HttpServerRequest request) {
         final Wopi wopiService = WopisProviders.getProvider(Renders.getHost(request));
-        wopiService.helper().getCapabilities()
+        wopiService.helper().context()
                 .onFailure(failure -> {
                     log.error("Fail to fetch wopi provider capabilities", failure);
                     renderError(request);
                 })
-                .onSuccess(capabilities -> {
-                    JsonObject body = new JsonObject()
-                            .put("provider", wopiService.provider().type())
-                            .put("capabilities", capabilities)
-                            .put("templates", wopiService.config().templates());
-                    renderJson(request, body);
+                .onSuccess(context -> {
+                    request.response()
+                            .putHeader(HttpHeaders.ETAG, context.etag())
+                            .putHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+                    if (HttpHelper.matchesETag(request.getHeader(HttpHeaders.IF_NONE_MATCH), context.etag())) {
+                        request.response().setStatusCode(304).end();
+                        return;
+                    }
+                    request.response()
+                            .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                            .end(context.body());
                 });
     }
 
@@ -176,6 +247,20 @@ public class LoolController extends ControllerHelper {
         wopiService.helper().discover(wopiService, aBoolean -> request.response().setStatusCode(201).end("201 Created"));
     }
 
+    @Post("/providers/reload")
+    @ApiDoc("Reload providers from given wopi configuration, without restart")
+    @ResourceFilter(SuperAdminFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
+    public void reloadProviders(HttpServerRequest request) {
+        RequestUtils.bodyToJson(request, wopi -> eb.<JsonObject>request(ProviderReloader.RELOAD_ADDRESS, wopi, ProviderReloader.RELOAD_OPTIONS)
+                .onSuccess(reply -> renderJson(request, reply.body()))
+                .onFailure(err -> {
+                    log.error("[LOOL@LoolController::reloadProviders] Failed to reload providers : " + err.getMessage());
+                    int status = err instanceof ReplyException && ((ReplyException) err).failureCode() == 400 ? 400 : 502;
+                    renderJson(request, new JsonObject().put("error", err.getMessage()), status);
+                }));
+    }
+
     @Get("/documents/:id/tokens")
     @ApiDoc("Generate provisional token for given document")
     @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
@@ -227,35 +312,34 @@ public class LoolController extends ControllerHelper {
                 return;
             }
             Token loolToken = new Token(validation.getJsonObject(Field.TOKEN));
-
-            tokenService.get(token, either -> {
-                if (either.isRight()) {
-                    if (loolToken.getUser().equals(either.right().getValue().getString("user"))) {
-                        tokenService.delete(token, deleteEither -> {
-                            if (deleteEither.isRight()) {
-                                documentService.get(imageId, event -> {
-                                    if (event.isRight()) {
-                                        JsonObject image = event.right().getValue();
-                                        fileService.get(image.getString(Field.FILE), buffer -> request.response()
-                                                .setStatusCode(200)
-                                                .putHeader("Content-Type", "application/octet-stream")
-                                                .putHeader("Content-Transfer-Encoding", "Binary")
-                                                .putHeader("Content-disposition", "attachment; filename=" + image.getString(Field.NAME))
-                                                .end(buffer));
-                                    } else {
-                                        renderError(request);
-                                    }
-                                });
-                            } else {
-                                renderError(request);
-                            }
-                        });
-                    } else {
-                        unauthorized(request);
-                    }
-                } else {
+            // Image is looked up first so that a missing image or a lookup failure does not burn the single use token
+            documentService.get(imageId, event -> {
+                if (event.isLeft()) {
                     renderError(request);
+                    return;
+                }
+                JsonObject image = event.right().getValue();
+                if (!image.containsKey(Field.FILE)) {
+                    notFound(request);
+                    return;
                 }
+                tokenService.consume(token, loolToken.getUser(), documentId, either -> {
+                    if (either.isLeft()) {
+                        renderError(request);
+                        return;
+                    }
+                    if (!either.right().getValue().containsKey(Field._ID)) {
+                        unauthorized(request);
+                        return;
+                    }
+                    String contentType = image.getJsonObject(Field.METADATA, new JsonObject()).getString("content-type");
+                    imageService.get(image.getString(Field.FILE), contentType, buffer -> request.response()
+                            .setStatusCode(200)
+                            .putHeader("Content-Type", "application/octet-stream")
+                            .putHeader("Content-Transfer-Encoding", "Binary")
+                            .putHeader("Content-disposition", "attachment; filename=" + image.getString(Field.NAME))
+                            .end(buffer));
+                });
             });
         });
     }
@@ -268,86 +352,50 @@ public class LoolController extends ControllerHelper {
             badRequest(request);
             return;
         }
+        Template template = templateService.get(request.getParam("type"));
+        if (template == null) {
+            log.error("[LoolController@createDocumentFromTemplate] Unknown template type. " + request.getParam("type"));
+            badRequest(request);
+            return;
+        }
         UserUtils.getUserInfos(eb, request, user -> {
-            request.pause();
-            String path = FileResolver.absolutePath("public/lool-templates/");
-            String type = request.getParam("type");
-            String filePath = path + "template." + type;
-            String filename = request.getParam(Field.NAME) + "." + type;
+            String filename = request.getParam(Field.NAME) + "." + template.getType();
             String folder = request.getParam("folder");
-            String contentType = getContentType(type, filePath);
-
-            if (contentType == null) {
-                log.error("[LoolController@createDocumentFromTemplate] Failed to read contentType. " + type);
-                renderError(request);
-                return;
-            }
-
-            vertx.fileSystem().readFile(filePath, readEvent -> {
-                if (readEvent.succeeded()) {
-                    Buffer fileBuffer = readEvent.result();
-                    fileService.add(fileBuffer, contentType, filename, either -> {
-                        if (either.isLeft()) {
-                            log.error("[LoolController@createDocumentFromTemplate] Failed to insert file in file system from buffer");
-                            renderError(request);
-                            return;
+            Handler<Either<String, JsonObject>> fileHandler = either -> {
+                if (either.isLeft()) {
+                    log.error("[LoolController@createDocumentFromTemplate] Failed to insert file in file system from buffer");
+                    renderError(request);
+                    return;
+                }
+                JsonObject file = either.right().getValue();
+                this.workspaceHelper.addDocument(file, user, filename, "media-library", false, new JsonArray(), handlerToAsyncHandler(message -> {
+                    if (Field.OK.equals(message.body().getString(Field.STATUS))) {
+                        String documentId = message.body().getString(Field._ID);
+                        if (folder != null) {
+                            workspaceHelper.moveDocument(documentId, folder, user, res -> {
+                                redirect(request, "/lool/documents/" + documentId + "/open?resync=true");
+                            });
+                        } else {
+                            redirect(request, "/lool/documents/" + documentId + "/open?resync=true");
                         }
-                        JsonObject file = either.right().getValue();
-                        this.workspaceHelper.addDocument(file, user, filename, "media-library", false, new JsonArray(), handlerToAsyncHandler(message -> {
-                            if (Field.OK.equals(message.body().getString(Field.STATUS))) {
-                                String documentId = message.body().getString(Field._ID);
-                                if (folder != null) {
-                                    workspaceHelper.moveDocument(documentId, folder, user, res -> {
-                                        redirect(request, "/lool/documents/" + documentId + "/open?resync=true");
-                                    });
-                                } else {
-                                    redirect(request, "/lool/documents/" + documentId + "/open?resync=true");
-                                }
-                            } else {
-                                renderError(request);
-                            }
-                        }));
-                    });
+                    } else {
+                        renderError(request);
+                    }
+                }));
+            };
+            templatePool.claim(template.getType(), pooled -> {
+                if (pooled != null) {
+                    // Pooled files are written as "template.<type>", they take the requested name once claimed
+                    if (pooled.getJsonObject(Field.METADATA) == null) pooled.put(Field.METADATA, new JsonObject());
+                    pooled.getJsonObject(Field.METADATA).put("filename", filename);
+                    fileHandler.handle(new Either.Right<>(pooled));
                 } else {
-                    log.error("[LoolController@createDocumentFromTemplate] Failed to read file : " + filePath, readEvent.cause());
+                    fileService.add(template.getContent(), template.getContentType(), filename, fileHandler);
                 }
             });
         });
     }
 
-    private String getContentType(String type, String filePath) {
-        String contentType;
-        try {
-            contentType = Files.probeContentType(Paths.get(filePath));
-        } catch (IOException e) {
-            log.error("[LoolController@getContentType] Failed to read template." + type + " content type", e);
-            return null;
-        }
-
-        if (contentType == null) {
-            switch (type) {
-                case Field.PPTX:
-                case Field.ODP:
-                    contentType = "application/vnd.oasis.opendocument.presentation";
-                    break;
-                case Field.DOCX:
-                case Field.ODT:
-                    contentType = "application/vnd.oasis.opendocument.text";
-                    break;
-                case Field.XLSX:
-                case Field.ODS:
-                    contentType = "application/vnd.oasis.opendocument.spreadsheet";
-                    break;
-                case Field.ODG:
-                    contentType = "application/vnd.oasis.opendocument.graphics";
-                    break;
-                default:
-                    return null;
-            }
-        }
-        return contentType;
-    }
-
     public void cleanDocumentsToken(Handler<Boolean> handler) {
         tokenService.clean(handler);
     }
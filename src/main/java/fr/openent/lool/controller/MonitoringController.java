@@ -1,20 +1,36 @@
 package fr.openent.lool.controller;
 
-import fr.openent.lool.service.Impl.DefaultMonitoringService;
+import fr.openent.lool.helper.MetricsHelper;
+import fr.openent.lool.helper.MonitoringStream;
+import fr.openent.lool.helper.SingleFlightCache;
+import fr.openent.lool.security.MonitoringFilter;
 import fr.openent.lool.service.MonitoringService;
 import fr.wseduc.rs.ApiDoc;
 import fr.wseduc.rs.Get;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
+import io.vertx.core.Context;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
 import org.entcore.common.controller.ControllerHelper;
+import org.entcore.common.http.filter.ResourceFilter;
+import org.entcore.common.http.filter.SuperAdminFilter;
 
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.defaultResponseHandler;
 
 public class MonitoringController extends ControllerHelper {
 
-    private final MonitoringService monitoringService = new DefaultMonitoringService();
+    private final MonitoringService monitoringService;
+    private final SingleFlightCache<JsonObject> snapshot;
+    private final MonitoringStream stream;
+
+    public MonitoringController(MonitoringService monitoringService, SingleFlightCache<JsonObject> snapshot, MonitoringStream stream) {
+        super();
+        this.monitoringService = monitoringService;
+        this.snapshot = snapshot;
+        this.stream = stream;
+    }
 
     @Get("/dashboard")
     @ApiDoc("Render monitoring view")
@@ -25,29 +41,66 @@ public class MonitoringController extends ControllerHelper {
 
     @Get("/monitoring/documents")
     @ApiDoc("Retrieve opened documents and user number")
-    @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
     public void getDocuments(HttpServerRequest request) {
         monitoringService.getDocuments(arrayResponseHandler(request));
     }
 
     @Get("/monitoring/users/count")
     @ApiDoc("Retrieve count users")
-    @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
     public void countUsers(HttpServerRequest request) {
         monitoringService.countUsers(defaultResponseHandler(request));
     }
 
     @Get("/monitoring/events/:event/count")
     @ApiDoc("Retrieve event count")
-    @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
     public void countEvent(HttpServerRequest request) {
         monitoringService.countEvent(request.getParam("event"), defaultResponseHandler(request));
     }
 
     @Get("/monitoring/extensions")
     @ApiDoc("Retrieve extensions count")
-    @SecuredAction(value = "", type = ActionType.AUTHENTICATED)
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
     public void getExtentions(HttpServerRequest request) {
         monitoringService.getExtensions(arrayResponseHandler(request));
     }
+
+    @Get("/monitoring/snapshot")
+    @ApiDoc("Retrieve every dashboard figure. Figures are computed at most once per refresh interval")
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
+    public void getSnapshot(HttpServerRequest request) {
+        // Snapshot may be computed by another instance: response is written from this request context
+        Context context = vertx.getOrCreateContext();
+        snapshot.get().onComplete(result -> context.runOnContext(v -> {
+            if (result.failed()) {
+                log.error("[LOOL@MonitoringController::getSnapshot] Failed to compute monitoring snapshot : " + result.cause().getMessage());
+                renderError(request);
+                return;
+            }
+            renderJson(request, result.result());
+        }));
+    }
+
+    @Get("/monitoring/stream")
+    @ApiDoc("Stream dashboard snapshot then changes as Server-Sent Events")
+    @ResourceFilter(MonitoringFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
+    public void getStream(HttpServerRequest request) {
+        stream.subscribe(request);
+    }
+
+    @Get("/monitoring/metrics")
+    @ApiDoc("Retrieve connector internal metrics")
+    @ResourceFilter(SuperAdminFilter.class)
+    @SecuredAction(value = "", type = ActionType.RESOURCE)
+    public void getMetrics(HttpServerRequest request) {
+        renderJson(request, MetricsHelper.snapshot());
+    }
 }
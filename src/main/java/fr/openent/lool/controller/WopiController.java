@@ -1,50 +1,65 @@
 package fr.openent.lool.controller;
 
+import fr.openent.lool.bean.PendingSave;
 import fr.openent.lool.bean.Token;
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.Bulkheads;
 import fr.openent.lool.helper.DateHelper;
+import fr.openent.lool.helper.EventLoopMonitor;
+import fr.openent.lool.helper.HttpHelper;
+import fr.openent.lool.helper.JsonBufferWriter;
+import fr.openent.lool.helper.MetricsHelper;
+import fr.openent.lool.helper.NodeAffinity;
 import fr.openent.lool.helper.TraceHelper;
 import fr.openent.lool.provider.Wopi;
 import fr.openent.lool.provider.WopiProviders;
 import fr.openent.lool.provider.WopisProviders;
 import fr.openent.lool.service.DocumentService;
 import fr.openent.lool.service.FileService;
-import fr.openent.lool.service.Impl.DefaultDocumentService;
-import fr.openent.lool.service.Impl.DefaultFileService;
+import fr.openent.lool.service.SaveService;
 import fr.openent.lool.utils.Actions;
 import fr.openent.lool.utils.Bindings;
 import fr.openent.lool.utils.Headers;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.rs.ApiDoc;
 import fr.wseduc.rs.Delete;
 import fr.wseduc.rs.Get;
 import fr.wseduc.rs.Post;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
-import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.http.Renders;
-import io.vertx.core.Handler;
-import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 import org.entcore.common.controller.ControllerHelper;
-import org.entcore.common.storage.Storage;
 import org.entcore.common.user.UserUtils;
 
+import java.security.MessageDigest;
+import java.util.Date;
+
 import static org.entcore.common.http.response.DefaultResponseHandler.defaultResponseHandler;
 
 public class WopiController extends ControllerHelper {
 
+    // Initial CheckFileInfo buffer size, large enough for most responses
+    private static final int CHECK_FILE_INFO_SIZE = 1024;
+
     private final DocumentService documentService;
     private final FileService fileService;
+    private final SaveService saveService;
 
-    public WopiController(EventBus eb, Storage storage) {
+    public WopiController(DocumentService documentService, FileService fileService, SaveService saveService) {
         super();
-        documentService = new DefaultDocumentService(eb, storage);
-        fileService = new DefaultFileService(storage);
+        this.documentService = documentService;
+        this.fileService = fileService;
+        this.saveService = saveService;
     }
 
     @Get("/wopi/files/:id")
     public void checkFileInfo(HttpServerRequest request) {
+        NodeAffinity.record(request);
         String loolToken = request.params().get("access_token");
         String documentId = request.params().get(Field.ID);
         final String host = Renders.getHost(request);
@@ -56,40 +71,54 @@ public class WopiController extends ControllerHelper {
             }
 
             Token token = new Token(validationObject.getJsonObject(Field.TOKEN));
-            wopiService.helper().userCanWrite(token.getSessionId(), token.getDocument(), canWrite ->
-                documentService.get(request.getParam(Field.ID), event -> {
-                    if (event.isRight()) {
-                        JsonObject document = event.right().getValue();
-                        JsonObject metadata = document.getJsonObject(Field.METADATA);
-
-                        // Create wopi response config
-                        JsonObject response = new JsonObject()
-                                .put(Field.BASEFILENAME, document.getString(Field.NAME))
-                                .put(Field.SIZE, metadata.getInteger(Field.size))
-                                .put(Field.OWNERID, document.getString(Field.OWNER))
-                                .put(Field.USERID, token.getUser())
-                                .put(Field.USERFRIENDLYNAME, token.getDisplayName())
-                                .put(Field.VERSION, DateHelper.getDateString(document.getString(Field.MODIFIED), DateHelper.MONGO_DATE_FORMAT, DateHelper.SQL_FORMAT))
-                                .put(Field.LASTMODIFIEDTIME, DateHelper.getDateString(document.getString(Field.MODIFIED), DateHelper.MONGO_DATE_FORMAT, DateHelper.SQL_FORMAT))
-                                .put(Field.USERCANWRITE, canWrite);
-
-                        //fix insert image in OnlyOffice
-                        if (WopiProviders.OnlyOffice.equals(wopiService.provider().type()))
-                            response.put(Field.POSTMESSAGEORIGIN, Renders.getScheme(request)  + "://" + host);
-
-                        // Merge server capabilities into wopi response config
-                        response.mergeIn(new JsonObject(wopiService.config().serverCapabilities()));
-                        renderJson(request, response);
-                    } else {
-                        badRequest(request);
-                    }
-                })
-            );
+            documentService.get(request.getParam(Field.ID), EventLoopMonitor.timed("checkFileInfo", event -> {
+                if (event.isRight()) {
+                    JsonObject document = event.right().getValue();
+                    JsonObject metadata = document.getJsonObject(Field.METADATA);
+                    String version = DateHelper.getDateString(document.getString(Field.MODIFIED), DateHelper.MONGO_DATE_FORMAT, DateHelper.SQL_FORMAT);
+
+                    // Create wopi response config. Server capabilities are pre-encoded and override response fields
+                    JsonBufferWriter response = new JsonBufferWriter(CHECK_FILE_INFO_SIZE, wopiService.config().serverCapabilities().keySet())
+                            .put(Field.BASEFILENAME, document.getString(Field.NAME))
+                            .put(Field.SIZE, metadata.getInteger(Field.size))
+                            .put(Field.OWNERID, document.getString(Field.OWNER))
+                            .put(Field.USERID, token.getUser())
+                            .put(Field.USERFRIENDLYNAME, token.getDisplayName())
+                            .put(Field.VERSION, version)
+                            .put(Field.LASTMODIFIEDTIME, version)
+                            .put(Field.USERCANWRITE, token.canWrite());
+
+                    //fix insert image in OnlyOffice
+                    if (WopiProviders.OnlyOffice.equals(wopiService.provider().type()))
+                        response.put(Field.POSTMESSAGEORIGIN, Renders.getScheme(request)  + "://" + host);
+
+                    request.response()
+                            .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                            .end(response.append(wopiService.config().serverCapabilitiesFragment()).end());
+                } else {
+                    badRequest(request);
+                }
+            }));
         });
     }
 
+    @Get("/wopi/node/:node/files/:id")
+    public void checkNodeFileInfo(HttpServerRequest request) {
+        checkFileInfo(request);
+    }
+
     @Get("/wopi/files/:id/contents")
     public void getFile(HttpServerRequest request) {
+        NodeAffinity.record(request);
+        Bulkheads.execute(request, Bulkheads.Operation.GET_FILE, v -> sendFile(request));
+    }
+
+    @Get("/wopi/node/:node/files/:id/contents")
+    public void getNodeFile(HttpServerRequest request) {
+        getFile(request);
+    }
+
+    private void sendFile(HttpServerRequest request) {
         String documentId = request.getParam(Field.ID);
         final Wopi wopiService = WopisProviders.getProvider(Renders.getHost(request));
         wopiService.helper().validateToken(request.getParam("access_token"), documentId, Bindings.READ.toString(), validation -> {
@@ -98,9 +127,21 @@ public class WopiController extends ControllerHelper {
                 return;
             }
 
-            documentService.get(documentId, event -> {
+            documentService.get(documentId, EventLoopMonitor.timed("getFile", event -> {
                 if (event.isRight()) {
                     JsonObject document = event.right().getValue();
+                    // Stored files are immutable: each save writes a new file, so file identifier is a strong validator
+                    String etag = HttpHelper.etag(document.getString(Field.FILE));
+                    String version = DateHelper.getDateString(document.getString(Field.MODIFIED), DateHelper.MONGO_DATE_FORMAT, DateHelper.SQL_FORMAT);
+                    request.response()
+                            .putHeader(HttpHeaders.ETAG, etag)
+                            .putHeader(HttpHeaders.CACHE_CONTROL, "no-cache")
+                            .putHeader(Headers.ITEM_VERSION.toString(), version);
+                    if (HttpHelper.matchesETag(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                        MetricsHelper.increment(Metrics.GETFILE_NOT_MODIFIED);
+                        request.response().setStatusCode(304).end();
+                        return;
+                    }
                     fileService.get(document.getString(Field.FILE), buffer ->
                             request.response()
                                     .setStatusCode(200)
@@ -111,13 +152,24 @@ public class WopiController extends ControllerHelper {
                 } else {
                     badRequest(request);
                 }
-            });
+            }));
         });
     }
 
     @Post("/wopi/files/:id/contents")
     public void putFile(HttpServerRequest request) {
+        NodeAffinity.record(request);
+        // Body is read once the request leaves the bulkhead queue
         request.pause();
+        Bulkheads.execute(request, Bulkheads.Operation.PUT_FILE, v -> saveFile(request));
+    }
+
+    @Post("/wopi/node/:node/files/:id/contents")
+    public void putNodeFile(HttpServerRequest request) {
+        putFile(request);
+    }
+
+    private void saveFile(HttpServerRequest request) {
         boolean isAutoSave = Boolean.parseBoolean(request.getHeader(Headers.AUTO_SAVE.toString()));
         boolean isExitSave = request.headers().contains(Headers.EXIT_SAVE.toString()) && Boolean.parseBoolean(request.headers().get(Headers.EXIT_SAVE.toString()));
         final Wopi wopiService = WopisProviders.getProvider(Renders.getHost(request));
@@ -132,36 +184,41 @@ public class WopiController extends ControllerHelper {
                 if (event.isRight()) {
                     JsonObject document = event.right().getValue();
                     JsonObject metadata = document.getJsonObject(Field.METADATA);
-                    request.resume();
-                    fileService.add(request, metadata.getString("content-type"), document.getString(Field.NAME), storageEvent -> {
-                        if (storageEvent.isLeft()) {
-                            log.error(storageEvent.left().getValue());
-                            renderError(request);
-                            return;
-                        }
-                        JsonObject storageBody = storageEvent.right().getValue();
-                        Handler<Either<String, JsonObject>> updateHandler = updateEvent -> {
+                    MessageDigest digest = HttpHelper.digest();
+                    Buffer body = Buffer.buffer();
+                    request.exceptionHandler(throwable -> {
+                        log.error("[WopiController@putFile] An error occurred when uploading file", throwable);
+                        renderError(request);
+                    });
+                    request.handler(chunk -> {
+                        if (digest != null) digest.update(chunk.getByteBuf().nioBuffer());
+                        body.appendBuffer(chunk);
+                    });
+                    request.endHandler(EventLoopMonitor.timed("putFile", end -> {
+                        PendingSave save = new PendingSave(request.getParam(Field.ID), metadata.getString("content-type"),
+                                document.getString(Field.NAME), body, isAutoSave || isExitSave, isExitSave, digest == null ? null : HttpHelper.hex(digest.digest()));
+                        saveService.save(save, updateEvent -> {
                             if (updateEvent.isRight()) {
+                                String modified = updateEvent.right().getValue().getString(Field.MODIFIED, MongoDb.formatDate(new Date()));
+                                request.response().putHeader(Headers.ITEM_VERSION.toString(),
+                                        DateHelper.getDateString(modified, DateHelper.MONGO_DATE_FORMAT, DateHelper.SQL_FORMAT));
                                 request.response().setStatusCode(200).end();
                             } else {
                                 renderError(request);
                             }
-                        };
-
-                        if (isAutoSave || isExitSave) {
-                            documentService.updateRevisionId(request.getParam(Field.ID), storageBody.getString(Field._ID), updateHandler);
-                            if (isExitSave) {
-                                wopiService.helper().deleteToken(token.getId(), either -> {
-                                    if (either.isLeft()) {
-                                        log.error("Failed to delete token on exit save");
-                                    }
-                                });
-                            }
-                        } else {
-                            documentService.update(request.getParam(Field.ID), storageBody.getString(Field._ID), storageBody.getJsonObject(Field.METADATA), updateHandler);
+                        });
+
+                        if (isExitSave) {
+                            wopiService.helper().deleteToken(token.getId(), either -> {
+                                if (either.isLeft()) {
+                                    log.error("Failed to delete token on exit save");
+                                }
+                            });
+                        } else if (!isAutoSave) {
                             TraceHelper.add(Actions.NEW_VERSION.name(), token.getUser(), token.getDocument(), TraceHelper.getFileExtension(document.getString(Field.NAME)));
                         }
-                    });
+                    }));
+                    request.resume();
                 } else {
                     renderError(request);
                 }
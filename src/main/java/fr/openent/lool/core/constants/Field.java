@@ -27,10 +27,15 @@ public class Field {
     public static final String DATE = "date";
     public static final String USERCANWRITE = "UserCanWrite";
     public static final String TOKEN = "token";
+    public static final String TYPE = "type";
     public static final String DOCUMENTSREVISION = "documentsRevisions";
     public static final String STATUS = "status";
     public static final String OK = "ok";
     public static final String POSTMESSAGEORIGIN = "PostMessageOrigin";
+    public static final String READ = "read";
+    public static final String WRITE = "write";
+    public static final String CHECKED = "checked";
+    public static final String DIGEST = "digest";
 
     //OnlyOffice extension
     public static final String PPTX = "pptx";
@@ -0,0 +1,73 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.bean.ProviderContext;
+import io.vertx.core.Future;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM wide state of a provider backend servers: health, scraped sessions, opens admitted since the last scrape and
+ * provider context. It is shared by the helpers of every verticle instance; only the leader instance probes and
+ * scrapes the servers.
+ */
+public class BackendState {
+    private final Set<String> unhealthy = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, AtomicInteger> scraped = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> admitted = new ConcurrentHashMap<>();
+    private Future<ProviderContext> context;
+    private String contextKey;
+
+    /**
+     * @return Servers failing health probes
+     */
+    public Set<String> unhealthy() {
+        return unhealthy;
+    }
+
+    /**
+     * @param server Backend server url
+     * @return Active sessions of given server at last scrape
+     */
+    public AtomicInteger scraped(String server) {
+        return scraped.computeIfAbsent(server, key -> new AtomicInteger());
+    }
+
+    /**
+     * @param server Backend server url
+     * @return Opens admitted on given server since last scrape
+     */
+    public AtomicInteger admitted(String server) {
+        return admitted.computeIfAbsent(server, key -> new AtomicInteger());
+    }
+
+    /**
+     * @param key Key of the configuration the context is built from
+     * @return Provider context built from given configuration, null when the context was built from another one
+     */
+    public synchronized Future<ProviderContext> context(String key) {
+        return key.equals(contextKey) ? context : null;
+    }
+
+    /**
+     * @param key     Key of the configuration the context is built from
+     * @param context Provider context
+     */
+    public synchronized void context(String key, Future<ProviderContext> context) {
+        this.contextKey = key;
+        this.context = context;
+    }
+
+    /**
+     * Forget state of servers that are not in given pool anymore
+     *
+     * @param servers Backend servers of the provider
+     */
+    public void retain(Collection<String> servers) {
+        unhealthy.retainAll(servers);
+        scraped.keySet().retainAll(servers);
+        admitted.keySet().retainAll(servers);
+    }
+}
@@ -0,0 +1,149 @@
+package fr.openent.lool.helper;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of buffers. Entries are evicted once the total size of cached buffers exceeds the limit,
+ * or when they are older than the optional time to live. Buffers can be copied off-heap so that large caches do not
+ * weigh on garbage collection.
+ */
+public class BufferCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxSize;
+    private final long ttl;
+    private final boolean offHeap;
+    private long size = 0L;
+
+    /**
+     * @param maxSize max cached bytes
+     * @param ttl     entries time to live in milliseconds. 0 disables expiration
+     * @param offHeap copy cached buffers in direct memory
+     */
+    public BufferCache(long maxSize, long ttl, boolean offHeap) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.offHeap = offHeap;
+    }
+
+    public BufferCache(long maxSize, long ttl) {
+        this(maxSize, ttl, false);
+    }
+
+    public BufferCache(long maxSize) {
+        this(maxSize, 0L, false);
+    }
+
+    /**
+     * Get cached buffer
+     *
+     * @param key entry key
+     * @return cached buffer or null if absent or expired
+     */
+    public synchronized Buffer get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.isExpired()) {
+            evict(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Get and remove cached buffer
+     *
+     * @param key entry key
+     * @return cached buffer or null if absent or expired
+     */
+    public synchronized Buffer remove(String key) {
+        Entry entry = evict(key);
+        return entry == null || entry.isExpired() ? null : entry.value;
+    }
+
+    /**
+     * Cache given buffer. Buffer bigger than cache size are ignored
+     *
+     * @param key   entry key
+     * @param value buffer to cache
+     */
+    public synchronized void put(String key, Buffer value) {
+        if (value == null || value.length() > maxSize) return;
+        evict(key);
+        entries.put(key, new Entry(offHeap ? toDirect(value) : value));
+        size += value.length();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().value.length();
+            iterator.remove();
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && !entry.isExpired();
+    }
+
+    /**
+     * Remove expired entries
+     */
+    public synchronized void purge() {
+        if (ttl <= 0) return;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.isExpired()) {
+                size -= entry.value.length();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return cached bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return cached entries count
+     */
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    private static Buffer toDirect(Buffer value) {
+        // Direct memory is released by the garbage collector once no pending write references it anymore
+        ByteBuffer direct = ByteBuffer.allocateDirect(value.length());
+        direct.put(value.getBytes());
+        direct.flip();
+        return Buffer.buffer(Unpooled.wrappedBuffer(direct));
+    }
+
+    private Entry evict(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) size -= entry.value.length();
+        return entry;
+    }
+
+    private class Entry {
+        private final Buffer value;
+        private final long date;
+
+        private Entry(Buffer value) {
+            this.value = value;
+            this.date = System.currentTimeMillis();
+        }
+
+        private boolean isExpired() {
+            return ttl > 0 && System.currentTimeMillis() - date > ttl;
+        }
+    }
+}
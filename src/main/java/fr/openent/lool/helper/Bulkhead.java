@@ -0,0 +1,114 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded concurrency for a kind of request. Requests above max concurrency wait in a bounded queue, requests above
+ * queue size are rejected with 503. A slot is released when the request response ends or its connection is closed.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private int active = 0;
+
+    /**
+     * @param name          Bulkhead name, used for metrics
+     * @param maxConcurrent Max concurrent requests
+     * @param maxQueue      Max waiting requests
+     */
+    public Bulkhead(String name, int maxConcurrent, int maxQueue) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        MetricsHelper.gauge(name + ".active", this::active);
+        MetricsHelper.gauge(name + ".queued", this::queued);
+    }
+
+    /**
+     * Execute given request task once a slot is available. End and close handlers are registered before the request
+     * waits, so that a client leaving the queue frees its place.
+     *
+     * @param request Server request
+     * @param task    Request task
+     */
+    public void execute(HttpServerRequest request, Handler<Void> task) {
+        Waiter waiter = new Waiter(request, Vertx.currentContext(), task);
+        synchronized (queue) {
+            if (active < maxConcurrent) {
+                active++;
+                waiter.started = true;
+            } else if (queue.size() < maxQueue) {
+                queue.add(waiter);
+                MetricsHelper.add(name + ".waited", 1L);
+            } else {
+                MetricsHelper.add(name + ".rejected", 1L);
+                request.response().setStatusCode(503).putHeader("Retry-After", "1").end();
+                return;
+            }
+        }
+        Handler<Void> finish = v -> finish(waiter);
+        request.response().endHandler(finish);
+        request.response().closeHandler(finish);
+        if (waiter.started) waiter.context.runOnContext(task);
+    }
+
+    /**
+     * Request ended or its connection closed. A waiting request leaves the queue, a running request hands its slot
+     * to the next waiting request still connected, which is started on its own context.
+     */
+    private void finish(Waiter waiter) {
+        if (!waiter.finished.compareAndSet(false, true)) return;
+        Waiter next;
+        synchronized (queue) {
+            if (!waiter.started) {
+                queue.remove(waiter);
+                return;
+            }
+            while ((next = queue.poll()) != null) {
+                if (!next.finished.get() && !next.request.response().closed()) {
+                    next.started = true;
+                    break;
+                }
+                next.finished.set(true);
+            }
+            if (next == null) active--;
+        }
+        if (next != null) next.context.runOnContext(next.task);
+    }
+
+    private int active() {
+        synchronized (queue) {
+            return active;
+        }
+    }
+
+    private int queued() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    private static class Waiter {
+        private final HttpServerRequest request;
+        private final Context context;
+        private final Handler<Void> task;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        // Guarded by the queue lock
+        private boolean started = false;
+
+        private Waiter(HttpServerRequest request, Context context, Handler<Void> task) {
+            this.request = request;
+            this.context = context;
+            this.task = task;
+        }
+    }
+}
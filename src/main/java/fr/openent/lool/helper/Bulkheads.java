@@ -0,0 +1,84 @@
+package fr.openent.lool.helper;
+
+import fr.wseduc.webutils.http.Renders;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per host bulkheads, so that a tenant load peak does not starve the other tenants. Each host has its own bounded
+ * concurrency for document opens, GetFile and PutFile. Hosts without configuration are not bounded.
+ */
+public final class Bulkheads {
+    public enum Operation {
+        OPEN("open"),
+        GET_FILE("getfile"),
+        PUT_FILE("putfile");
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return this.key;
+        }
+    }
+
+    private static final Map<String, Map<Operation, Bulkhead>> bulkheads = new ConcurrentHashMap<>();
+
+    private Bulkheads() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Configure bulkheads of given host. Each operation is configured with "max-concurrent" and "max-queue" values,
+     * an operation without configuration is not bounded.
+     *
+     * @param host   Host
+     * @param config Bulkheads configuration, by operation
+     */
+    public static void configure(String host, JsonObject config) {
+        Map<Operation, Bulkhead> hostBulkheads = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            JsonObject operationConfig = config.getJsonObject(operation.toString());
+            if (operationConfig == null) continue;
+            hostBulkheads.put(operation, new Bulkhead("bulkhead." + host + "." + operation,
+                    operationConfig.getInteger("max-concurrent", 50), operationConfig.getInteger("max-queue", 100)));
+        }
+        bulkheads.put(host, hostBulkheads);
+    }
+
+    /**
+     * Remove bulkheads of hosts other than given ones. Requests already admitted release their own bulkhead.
+     *
+     * @param hosts Configured hosts
+     */
+    public static void retain(Set<String> hosts) {
+        bulkheads.keySet().retainAll(hosts);
+    }
+
+    /**
+     * Execute given request task in the bulkhead of the request host
+     *
+     * @param request   Server request
+     * @param operation Request operation
+     * @param task      Request task
+     */
+    public static void execute(HttpServerRequest request, Operation operation, Handler<Void> task) {
+        Map<Operation, Bulkhead> hostBulkheads = bulkheads.get(Renders.getHost(request));
+        Bulkhead bulkhead = hostBulkheads == null ? null : hostBulkheads.get(operation);
+        if (bulkhead == null) {
+            task.handle(null);
+        } else {
+            bulkhead.execute(request, task);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Backend servers capacity monitor. Active sessions of each server are scraped periodically through the probe, and
+ * opens admitted since the last scrape are added to the scraped value. When a server load reaches the high watermark,
+ * new opens are degraded to read only or rejected, depending on the configured mode. Counters are JVM wide, shared by
+ * every verticle instance; only the leader instance scrapes.
+ */
+public class CapacityMonitor {
+    public enum Admission {
+        OPEN,
+        READ_ONLY,
+        BUSY
+    }
+
+    private final Logger log = LoggerFactory.getLogger(CapacityMonitor.class);
+    private final CapacityProbe probe;
+    private final boolean enabled;
+    private final int threshold;
+    private final Admission saturated;
+    private final long retryAfter;
+    private final Set<String> servers;
+    private final BackendState state;
+    private final Vertx vertx;
+    private long timer = -1L;
+
+    public CapacityMonitor(Vertx vertx, String providerId, Collection<String> servers, CapacityProbe probe, JsonObject config,
+                           BackendState state, boolean leader) {
+        this.vertx = vertx;
+        this.servers = new LinkedHashSet<>(servers);
+        this.state = state;
+        this.probe = probe;
+        this.enabled = config.getBoolean("enabled", false);
+        this.threshold = (int) (config.getInteger("max-sessions", 100) * config.getDouble("high-watermark", 0.9));
+        this.saturated = "busy".equals(config.getString("mode", "read-only")) ? Admission.BUSY : Admission.READ_ONLY;
+        this.retryAfter = config.getLong("retry-after-seconds", 30L);
+        if (enabled && leader) {
+            this.timer = vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.getLong("interval-seconds", 15L)), id -> scrape());
+            MetricsHelper.gauge("capacity." + providerId + ".sessions", this::sessions);
+        }
+    }
+
+    /**
+     * Decide how a document open on given server is admitted. Admitted opens are counted until the next scrape.
+     *
+     * @param server Backend server url
+     * @return Admission decision
+     */
+    public Admission admit(String server) {
+        if (!enabled || !servers.contains(server)) return Admission.OPEN;
+        AtomicInteger admitted = state.admitted(server);
+        int current;
+        do {
+            current = admitted.get();
+            if (state.scraped(server).get() + current >= threshold) {
+                MetricsHelper.increment(saturated == Admission.BUSY ? Metrics.OPEN_REJECTED : Metrics.OPEN_DEGRADED);
+                return saturated;
+            }
+        } while (!admitted.compareAndSet(current, current + 1));
+        return Admission.OPEN;
+    }
+
+    /**
+     * Uncount an admitted open that did not start a new session, such as a reopen reusing a live token
+     *
+     * @param server Backend server url
+     */
+    public void release(String server) {
+        if (!enabled || !servers.contains(server)) return;
+        state.admitted(server).updateAndGet(admitted -> Math.max(0, admitted - 1));
+    }
+
+    /**
+     * Delay clients should wait before retrying a rejected open
+     *
+     * @return delay in seconds
+     */
+    public long retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Stop scraping backend servers
+     */
+    public void close() {
+        if (timer >= 0) vertx.cancelTimer(timer);
+    }
+
+    /**
+     * Scrape active sessions of every backend server through the probe. A server that fails to answer keeps its
+     * previous counters
+     *
+     * @return Future completed once every server answered or failed
+     */
+    public Future<Void> scrape() {
+        List<Future<Integer>> scrapes = new ArrayList<>();
+        servers.forEach(server -> scrapes.add(probe.sessions(server).onComplete(result -> {
+            if (result.failed()) {
+                log.warn("[CapacityMonitor@scrape] Failed to scrape " + server + " : " + result.cause().getMessage());
+                return;
+            }
+            state.scraped(server).set(result.result());
+            state.admitted(server).set(0);
+        })));
+        return Future.join(scrapes).<Void>mapEmpty().otherwiseEmpty();
+    }
+
+    private JsonObject sessions() {
+        JsonObject sessions = new JsonObject();
+        servers.forEach(server -> sessions.put(server, state.scraped(server).get() + state.admitted(server).get()));
+        return sessions;
+    }
+}
@@ -0,0 +1,14 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.Future;
+
+public interface CapacityProbe {
+
+    /**
+     * Get active editing sessions of given backend server
+     *
+     * @param server Backend server url
+     * @return Future completed with active sessions count
+     */
+    Future<Integer> sessions(String server);
+}
@@ -0,0 +1,69 @@
+package fr.openent.lool.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Immutable consistent hash ring. Each member is placed on the ring several times (virtual nodes) to spread keys
+ * evenly. A key is assigned to the first member found clockwise from its hash, so removing a member only moves the
+ * keys of this member.
+ */
+public class ConsistentHashRing {
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param members  Ring members
+     * @param replicas Virtual nodes by member
+     */
+    public ConsistentHashRing(Collection<String> members, int replicas) {
+        for (String member : members) {
+            for (int i = 0; i < replicas; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * Get member assigned to given key
+     *
+     * @param key Key
+     * @return Member, null when the ring is empty
+     */
+    public String pick(String key) {
+        return pick(key, member -> true);
+    }
+
+    /**
+     * Get first available member assigned to given key
+     *
+     * @param key       Key
+     * @param available Member availability
+     * @return Member, null when no member is available
+     */
+    public String pick(String key, Predicate<String> available) {
+        long hash = hash(key);
+        for (String member : ring.tailMap(hash, true).values()) {
+            if (available.test(member)) return member;
+        }
+        for (String member : ring.headMap(hash, false).values()) {
+            if (available.test(member)) return member;
+        }
+        return null;
+    }
+
+    /**
+     * 64 bits FNV-1a hash, mixed with the SplitMix64 finalizer for a better spread of close keys
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
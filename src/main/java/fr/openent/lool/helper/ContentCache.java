@@ -0,0 +1,175 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Read-through document content cache with an off-heap memory tier and a local disk tier. Entries are keyed by
+ * storage file identifier. Stored files are immutable so entries never need to be invalidated, they are only evicted
+ * on size.
+ */
+public class ContentCache {
+
+    private static final String DISK_DIRECTORY_PREFIX = "lool-content-";
+
+    private final Logger log = LoggerFactory.getLogger(ContentCache.class);
+    private final FileSystem fs;
+    private final BufferCache memory;
+    private final String diskPath;
+    private final long diskMaxSize;
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskSize = 0L;
+    private boolean diskReady = false;
+
+    public ContentCache(Vertx vertx, JsonObject config) {
+        this.fs = vertx.fileSystem();
+        this.memory = new BufferCache(config.getLong("memory-size-mb", 256L) * 1024 * 1024, 0L, config.getBoolean("off-heap", true));
+        // Disk tier is not indexed across restarts: each cache owns a fresh subdirectory of the configured path, the
+        // configured path itself is never cleared
+        this.diskPath = config.getString("disk-path") != null
+                ? config.getString("disk-path") + File.separator + DISK_DIRECTORY_PREFIX + UUID.randomUUID()
+                : null;
+        this.diskMaxSize = config.getLong("disk-size-mb", 2048L) * 1024 * 1024;
+
+        if (diskPath != null) {
+            fs.mkdirs(diskPath, mkdirs -> {
+                if (mkdirs.succeeded()) {
+                    synchronized (diskEntries) {
+                        diskReady = true;
+                    }
+                    Runtime.getRuntime().addShutdownHook(new Thread(this::clearDisk));
+                } else {
+                    log.error("[ContentCache] Failed to create disk cache directory " + diskPath, mkdirs.cause());
+                }
+            });
+        }
+
+        MetricsHelper.gauge("content.cache.hit.ratio", ContentCache::hitRatio);
+        MetricsHelper.gauge("content.cache.memory.size", memory::size);
+        MetricsHelper.gauge("content.cache.disk.size", this::diskSize);
+    }
+
+    /**
+     * Get cached content. Memory tier is checked first, then disk tier. Disk hits are promoted to memory.
+     *
+     * @param fileId  File identifier
+     * @param handler Function handler returning cached content, or null on miss
+     */
+    public void get(String fileId, Handler<Buffer> handler) {
+        Buffer buffer = memory.get(fileId);
+        if (buffer != null) {
+            MetricsHelper.increment(Metrics.CONTENT_CACHE_MEMORY_HIT);
+            MetricsHelper.add(Metrics.CONTENT_BYTES_MEMORY, buffer.length());
+            handler.handle(buffer);
+            return;
+        }
+
+        boolean onDisk;
+        synchronized (diskEntries) {
+            onDisk = diskReady && diskEntries.containsKey(fileId);
+        }
+        if (!onDisk) {
+            MetricsHelper.increment(Metrics.CONTENT_CACHE_MISS);
+            handler.handle(null);
+            return;
+        }
+
+        fs.readFile(diskFile(fileId), read -> {
+            if (read.failed()) {
+                synchronized (diskEntries) {
+                    Long size = diskEntries.remove(fileId);
+                    if (size != null) diskSize -= size;
+                }
+                MetricsHelper.increment(Metrics.CONTENT_CACHE_MISS);
+                handler.handle(null);
+                return;
+            }
+            MetricsHelper.increment(Metrics.CONTENT_CACHE_DISK_HIT);
+            MetricsHelper.add(Metrics.CONTENT_BYTES_DISK, read.result().length());
+            memory.put(fileId, read.result());
+            handler.handle(read.result());
+        });
+    }
+
+    /**
+     * Cache given content in both tiers
+     *
+     * @param fileId File identifier
+     * @param buffer File content
+     */
+    public void put(String fileId, Buffer buffer) {
+        memory.put(fileId, buffer);
+        synchronized (diskEntries) {
+            if (!diskReady || buffer.length() > diskMaxSize || diskEntries.containsKey(fileId)) return;
+        }
+        fs.writeFile(diskFile(fileId), buffer, write -> {
+            if (write.failed()) {
+                log.error("[ContentCache@put] Failed to write file " + fileId + " in disk cache", write.cause());
+                return;
+            }
+            List<String> evicted = new ArrayList<>();
+            synchronized (diskEntries) {
+                // Concurrent puts of the same file both write it: count it once
+                Long previous = diskEntries.put(fileId, (long) buffer.length());
+                if (previous != null) diskSize -= previous;
+                diskSize += buffer.length();
+                Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+                while (diskSize > diskMaxSize && iterator.hasNext()) {
+                    Map.Entry<String, Long> entry = iterator.next();
+                    diskSize -= entry.getValue();
+                    evicted.add(entry.getKey());
+                    iterator.remove();
+                }
+            }
+            evicted.forEach(key -> fs.delete(diskFile(key), delete -> {
+                if (delete.failed()) log.error("[ContentCache@put] Failed to evict file " + key + " from disk cache");
+            }));
+        });
+    }
+
+    private static double hitRatio() {
+        long hits = MetricsHelper.get(Metrics.CONTENT_CACHE_MEMORY_HIT) + MetricsHelper.get(Metrics.CONTENT_CACHE_DISK_HIT);
+        long total = hits + MetricsHelper.get(Metrics.CONTENT_CACHE_MISS);
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    /**
+     * Delete files written by this cache, then its directory. Nothing else is deleted.
+     */
+    private void clearDisk() {
+        List<String> files;
+        synchronized (diskEntries) {
+            diskReady = false;
+            files = new ArrayList<>(diskEntries.keySet());
+            diskEntries.clear();
+            diskSize = 0L;
+        }
+        files.forEach(fileId -> new File(diskFile(fileId)).delete());
+        new File(diskPath).delete();
+    }
+
+    private long diskSize() {
+        synchronized (diskEntries) {
+            return diskSize;
+        }
+    }
+
+    private String diskFile(String fileId) {
+        // Storage identifiers are UUIDs, drop anything that could escape the cache directory
+        return diskPath + File.separator + fileId.replaceAll("[^a-zA-Z0-9_-]", "_");
+    }
+}
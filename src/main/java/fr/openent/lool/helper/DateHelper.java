@@ -4,8 +4,14 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DateHelper {
 
@@ -14,14 +20,19 @@ public class DateHelper {
     public static final String SQL_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
     public static final String MONGO_DATE_FORMAT = "yyyy-MM-dd HH:mm.ss";
 
+    // Formatters are immutable and thread safe, they are built once by pattern
+    private static final Map<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
 
     private DateHelper() {
         throw new IllegalStateException("Utility class");
     }
 
     public static Date parse(String date, String format) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat(format);
-        return sdf.parse(date);
+        try {
+            return Date.from(toLocalDateTime(date, format).atZone(ZoneId.systemDefault()).toInstant());
+        } catch (DateTimeException e) {
+            throw new ParseException(e.getMessage(), e instanceof DateTimeParseException ? ((DateTimeParseException) e).getErrorIndex() : 0);
+        }
     }
 
     /**
@@ -34,11 +45,21 @@ public class DateHelper {
      */
     public static String getDateString(String date, String formattedDate, String format) {
         try {
-            Date parsedDate = parse(date, formattedDate);
-            return new SimpleDateFormat(format).format(parsedDate);
-        } catch (ParseException err) {
+            return toLocalDateTime(date, formattedDate).format(formatter(format));
+        } catch (DateTimeException err) {
             LOGGER.error("[Lool@DateHelper::getDateString] Failed to parse date " + date, err);
             return date;
         }
     }
+
+    /**
+     * Parse given date. As with SimpleDateFormat, trailing characters after the pattern are ignored
+     */
+    private static LocalDateTime toLocalDateTime(String date, String format) {
+        return LocalDateTime.from(formatter(format).parse(date, new ParsePosition(0)));
+    }
+
+    private static DateTimeFormatter formatter(String format) {
+        return FORMATTERS.computeIfAbsent(format, DateTimeFormatter::ofPattern);
+    }
 }
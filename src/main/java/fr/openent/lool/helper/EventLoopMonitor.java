@@ -0,0 +1,77 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event loop instrumentation. A periodic probe on each verticle instance context measures its event loop lag, and
+ * wrapped handlers report the time they spend on the event loop. Handlers and lags above the threshold are logged and
+ * counted as metrics; the lag gauge reports the worst event loop.
+ */
+public final class EventLoopMonitor {
+    private static final Logger log = LoggerFactory.getLogger(EventLoopMonitor.class);
+    private static final List<AtomicLong> lags = new CopyOnWriteArrayList<>();
+    private static volatile long threshold = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private EventLoopMonitor() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Start event loop lag probe on the calling verticle context. The lag is the delay between the time the probe
+     * fires and the time it was expected to fire, one interval after its previous fire.
+     *
+     * @param vertx  Vertx instance
+     * @param config Monitor configuration
+     */
+    public static void start(Vertx vertx, JsonObject config) {
+        threshold = TimeUnit.MILLISECONDS.toNanos(config.getLong("threshold-ms", 50L));
+        long interval = TimeUnit.MILLISECONDS.toNanos(config.getLong("probe-interval-ms", 1000L));
+        AtomicLong lag = new AtomicLong();
+        AtomicLong previous = new AtomicLong(System.nanoTime());
+        lags.add(lag);
+        vertx.setPeriodic(TimeUnit.NANOSECONDS.toMillis(interval), timer -> {
+            long now = System.nanoTime();
+            long delay = Math.max(0L, now - previous.getAndSet(now) - interval);
+            lag.set(TimeUnit.NANOSECONDS.toMillis(delay));
+            if (delay > threshold) {
+                MetricsHelper.increment(Metrics.EVENTLOOP_STALLS);
+                log.warn("[EventLoopMonitor] Event loop lag " + TimeUnit.NANOSECONDS.toMillis(delay) + "ms");
+            }
+        });
+        MetricsHelper.gauge("eventloop.lag.ms", () -> lags.stream().mapToLong(AtomicLong::get).max().orElse(0L));
+    }
+
+    /**
+     * Wrap given handler to measure the time it spends on the event loop
+     *
+     * @param name    Handler name, used for metrics
+     * @param handler Handler to measure
+     * @return Measured handler
+     */
+    public static <T> Handler<T> timed(String name, Handler<T> handler) {
+        return event -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(event);
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                MetricsHelper.add("eventloop.handler." + name + ".count", 1L);
+                MetricsHelper.add("eventloop.handler." + name + ".time.us", TimeUnit.NANOSECONDS.toMicros(elapsed));
+                if (elapsed > threshold) {
+                    MetricsHelper.increment(Metrics.EVENTLOOP_SLOW_HANDLERS);
+                    log.warn("[EventLoopMonitor] Handler " + name + " blocked the event loop for " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Capacity probe reading the backend server metrics endpoint. The endpoint must answer in the Prometheus text format,
+ * as Collabora Online does on /cool/getMetrics. Values of the configured metric are summed.
+ */
+public class HttpCapacityProbe implements CapacityProbe {
+    private final Map<String, HttpClient> httpClients;
+    private final String path;
+    private final String metric;
+    private final String authorization;
+
+    public HttpCapacityProbe(Map<String, HttpClient> httpClients, JsonObject config) {
+        this.httpClients = httpClients;
+        this.path = config.getString("metrics-path", "/cool/getMetrics");
+        this.metric = config.getString("metric", "document_active_views_active_count_total");
+        String username = config.getString("username");
+        this.authorization = username == null ? null : "Basic " + Base64.getEncoder()
+                .encodeToString((username + ":" + config.getString("password", "")).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Future<Integer> sessions(String server) {
+        RequestOptions options = new RequestOptions().setURI(path).setTimeout(5000L);
+        if (authorization != null) options.putHeader(HttpHeaders.AUTHORIZATION, authorization);
+        return httpClients.get(server).request(options)
+                .compose(HttpClientRequest::send)
+                .compose(response -> {
+                    if (response.statusCode() != 200) {
+                        return Future.failedFuture("[HttpCapacityProbe@sessions] " + server + path + " answered " + response.statusCode());
+                    }
+                    return response.body().map(body -> parse(body.toString()));
+                });
+    }
+
+    private int parse(String metrics) {
+        int sessions = 0;
+        for (String line : metrics.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] sample = line.trim().split("\\s+");
+            String name = sample[0].contains("{") ? sample[0].substring(0, sample[0].indexOf('{')) : sample[0];
+            if (metric.equals(name) && sample.length > 1) {
+                sessions += (int) Double.parseDouble(sample[1]);
+            }
+        }
+        return sessions;
+    }
+}
@@ -11,6 +11,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import static fr.openent.lool.provider.WopiProviders.OnlyOffice;
 
@@ -63,4 +65,57 @@ public class HttpHelper {
             return "";
         }
     }
+
+    /**
+     * Check if given If-None-Match header value matches given entity tag
+     *
+     * @param ifNoneMatch If-None-Match header value. Can be null
+     * @param etag        Current entity tag
+     * @return true if the client already holds the current representation
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if ("*".equals(value) || etag.equals(value) || ("W/" + etag).equals(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Build strong entity tag from given value
+     *
+     * @param value entity tag value
+     * @return Quoted entity tag
+     */
+    public static String etag(String value) {
+        return "\"" + value + "\"";
+    }
+
+    /**
+     * Create SHA-256 digest used to identify request bodies
+     *
+     * @return Message digest, or null if the algorithm is not available
+     */
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encode given bytes as hexadecimal string
+     *
+     * @param bytes bytes to encode
+     * @return Hexadecimal string
+     */
+    public static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
 }
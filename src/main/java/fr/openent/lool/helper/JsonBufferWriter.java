@@ -0,0 +1,129 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Write a flat JSON object straight to a buffer, without building an intermediate JsonObject. Pre-encoded fragments
+ * are appended as is. Fields whose key belongs to the overridden keys are not written: a fragment holding them is
+ * expected, as with JsonObject.mergeIn.
+ */
+public final class JsonBufferWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Buffer buffer;
+    private final Set<String> overridden;
+    private boolean empty = true;
+
+    public JsonBufferWriter(int size) {
+        this(size, Collections.emptySet());
+    }
+
+    public JsonBufferWriter(int size, Set<String> overridden) {
+        this.buffer = Buffer.buffer(size).appendByte((byte) '{');
+        this.overridden = overridden;
+    }
+
+    /**
+     * Encode given object fields as a fragment, to be appended to written objects
+     *
+     * @param object Object to encode
+     * @return Fragment, empty when object has no field
+     */
+    public static Buffer fragment(JsonObject object) {
+        String encoded = object.encode();
+        return Buffer.buffer(encoded.substring(1, encoded.length() - 1));
+    }
+
+    public JsonBufferWriter put(String key, String value) {
+        if (!key(key)) return this;
+        if (value == null) {
+            buffer.appendString("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonBufferWriter put(String key, Number value) {
+        if (!key(key)) return this;
+        buffer.appendString(String.valueOf(value));
+        return this;
+    }
+
+    public JsonBufferWriter put(String key, boolean value) {
+        if (!key(key)) return this;
+        buffer.appendString(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Append pre-encoded fields
+     *
+     * @param fragment Fields encoded without enclosing braces
+     * @return Writer
+     */
+    public JsonBufferWriter append(Buffer fragment) {
+        if (fragment.length() == 0) return this;
+        if (!empty) buffer.appendByte((byte) ',');
+        buffer.appendBuffer(fragment);
+        empty = false;
+        return this;
+    }
+
+    public Buffer end() {
+        return buffer.appendByte((byte) '}');
+    }
+
+    private boolean key(String key) {
+        if (overridden.contains(key)) return false;
+        if (!empty) buffer.appendByte((byte) ',');
+        string(key);
+        buffer.appendByte((byte) ':');
+        empty = false;
+        return true;
+    }
+
+    private void string(String value) {
+        buffer.appendByte((byte) '"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            if (i > start) buffer.appendString(value.substring(start, i));
+            escape(c);
+            start = i + 1;
+        }
+        if (start == 0) {
+            buffer.appendString(value);
+        } else if (start < value.length()) {
+            buffer.appendString(value.substring(start));
+        }
+        buffer.appendByte((byte) '"');
+    }
+
+    private void escape(char c) {
+        switch (c) {
+            case '"':
+                buffer.appendString("\\\"");
+                break;
+            case '\\':
+                buffer.appendString("\\\\");
+                break;
+            case '\n':
+                buffer.appendString("\\n");
+                break;
+            case '\r':
+                buffer.appendString("\\r");
+                break;
+            case '\t':
+                buffer.appendString("\\t");
+                break;
+            default:
+                buffer.appendString("\\u00").appendByte((byte) HEX[c >> 4]).appendByte((byte) HEX[c & 0xF]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class MetricsHelper {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Object>> gauges = new ConcurrentHashMap<>();
+
+    private MetricsHelper() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Increment given metric counter
+     *
+     * @param metric metric to increment
+     */
+    public static void increment(Metrics metric) {
+        add(metric.toString(), 1L);
+    }
+
+    /**
+     * Add given value to given metric counter
+     *
+     * @param metric metric to update
+     * @param value  value to add
+     */
+    public static void add(Metrics metric, long value) {
+        add(metric.toString(), value);
+    }
+
+    /**
+     * Add given value to metric counter identified by given name. Counter is created on first call
+     *
+     * @param name  metric name
+     * @param value value to add
+     */
+    public static void add(String name, long value) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(value);
+    }
+
+    /**
+     * Get current value of given metric
+     *
+     * @param metric metric to read
+     * @return Current metric value
+     */
+    public static long get(Metrics metric) {
+        LongAdder counter = counters.get(metric.toString());
+        return counter == null ? 0L : counter.sum();
+    }
+
+    /**
+     * Register a gauge. Gauge value is read each time a snapshot is built
+     *
+     * @param name  gauge name
+     * @param gauge gauge value supplier
+     */
+    public static void gauge(String name, Supplier<Object> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Get all metrics as JSON object, sorted by name
+     *
+     * @return Metrics snapshot
+     */
+    public static JsonObject snapshot() {
+        JsonObject snapshot = new JsonObject();
+        new TreeMap<>(counters).forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        new TreeMap<>(gauges).forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        return snapshot;
+    }
+}
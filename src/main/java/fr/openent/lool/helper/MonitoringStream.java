@@ -0,0 +1,160 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monitoring Server-Sent Events stream. Subscribers first receive the monitoring snapshot, then the deltas published
+ * by token lifecycle and trace paths: documents opened and closed, access and new version events. The snapshot is
+ * sent again periodically, so that subscribers catch up with changes that have no delta (expired tokens).
+ * <p>
+ * Snapshots sent on the stream are computed from the time they are requested, never served from the cache. Deltas are
+ * stamped with their publication date: while a subscriber waits for a snapshot its deltas are held, then only those
+ * published from the snapshot computation date are sent after it, so that no delta is lost, applied twice or rolled
+ * back by the snapshot.
+ */
+public class MonitoringStream {
+    public static final String OPENED = "opened";
+    public static final String CLOSED = "closed";
+    public static final String EVENT = "event";
+    private static final String ADDRESS = "fr.openent.lool.monitoring";
+    private static final String AT = "at";
+    private static final String COMPUTED = "computed";
+
+    private static volatile EventBus eventBus;
+
+    private final Logger log = LoggerFactory.getLogger(MonitoringStream.class);
+    private final Set<HttpServerResponse> subscribers = ConcurrentHashMap.newKeySet();
+    // Deltas held for subscribers waiting for a snapshot
+    private final Map<HttpServerResponse, List<JsonObject>> pending = new ConcurrentHashMap<>();
+    private final Context context;
+    private final SingleFlightCache<JsonObject> snapshot;
+
+    /**
+     * Create instance stream. Must be created on the verticle instance context.
+     *
+     * @param vertx    Vertx instance
+     * @param snapshot Monitoring snapshot
+     * @param config   Monitoring configuration
+     */
+    public MonitoringStream(Vertx vertx, SingleFlightCache<JsonObject> snapshot, JsonObject config) {
+        eventBus = vertx.eventBus();
+        this.context = vertx.getOrCreateContext();
+        this.snapshot = snapshot;
+        vertx.eventBus().<JsonObject>consumer(ADDRESS, message -> subscribers.forEach(response -> delta(response, message.body())));
+        vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.getLong("stream-heartbeat-seconds", 15L)), timer ->
+                subscribers.forEach(response -> write(response, ": heartbeat\n\n")));
+        vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.getLong("stream-snapshot-seconds", 300L)), timer -> {
+            if (!subscribers.isEmpty()) sendSnapshot(new ArrayList<>(subscribers), false);
+        });
+    }
+
+    /**
+     * Publish a monitoring delta to every stream subscriber of the cluster
+     *
+     * @param type  Delta type
+     * @param delta Delta content
+     */
+    public static void publish(String type, JsonObject delta) {
+        EventBus eb = eventBus;
+        if (eb != null) {
+            eb.publish(ADDRESS, delta.put("type", type).put(AT, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Subscribe given request to the stream
+     *
+     * @param request Server request
+     */
+    public void subscribe(HttpServerRequest request) {
+        HttpServerResponse response = request.response();
+        response.setChunked(true)
+                .putHeader(HttpHeaders.CONTENT_TYPE, "text/event-stream")
+                .putHeader(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .putHeader("X-Accel-Buffering", "no");
+        response.closeHandler(v -> {
+            subscribers.remove(response);
+            pending.remove(response);
+        });
+        write(response, "retry: 5000\n\n");
+        subscribers.add(response);
+        sendSnapshot(Collections.singletonList(response), true);
+    }
+
+    private void delta(HttpServerResponse response, JsonObject delta) {
+        List<JsonObject> held = pending.get(response);
+        if (held != null) {
+            held.add(delta);
+        } else {
+            send(response, "delta", delta);
+        }
+    }
+
+    /**
+     * Send a fresh monitoring snapshot to given subscribers, followed by the deltas published while it was computed.
+     * When it fails, a new subscriber is disconnected so that it subscribes again, other subscribers get their held
+     * deltas.
+     *
+     * @param targets Subscribers
+     * @param initial True if targets did not receive any snapshot yet
+     */
+    private void sendSnapshot(List<HttpServerResponse> targets, boolean initial) {
+        targets.forEach(response -> pending.putIfAbsent(response, new ArrayList<>()));
+        snapshot.refresh().onComplete(result -> context.runOnContext(v -> targets.forEach(response -> {
+            List<JsonObject> held = pending.remove(response);
+            if (held == null) return;
+            if (result.failed()) {
+                log.error("[LOOL@MonitoringStream::sendSnapshot] Failed to compute monitoring snapshot : " + result.cause().getMessage());
+                if (initial) {
+                    subscribers.remove(response);
+                    response.close();
+                    return;
+                }
+                held.forEach(delta -> send(response, "delta", delta));
+                return;
+            }
+            long computed = result.result().getLong(COMPUTED, 0L);
+            send(response, "snapshot", result.result());
+            held.stream()
+                    .filter(delta -> delta.getLong(AT, 0L) >= computed)
+                    .forEach(delta -> send(response, "delta", delta));
+        })));
+    }
+
+    private void send(HttpServerResponse response, String event, JsonObject data) {
+        write(response, "event: " + event + "\ndata: " + data.encode() + "\n\n");
+    }
+
+    /**
+     * Write to given subscriber. A subscriber that does not keep up is disconnected, it gets a fresh snapshot when
+     * it reconnects.
+     */
+    private void write(HttpServerResponse response, String chunk) {
+        if (response.closed() || response.ended()) {
+            subscribers.remove(response);
+            return;
+        }
+        if (response.writeQueueFull()) {
+            subscribers.remove(response);
+            response.close();
+            return;
+        }
+        response.write(chunk);
+    }
+}
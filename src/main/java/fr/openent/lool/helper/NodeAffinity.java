@@ -0,0 +1,65 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Node affinity hint of WOPI callbacks. When enabled, the WOPISrc given to the editor holds the identifier of the node
+ * that opened the document, so that the load balancer can route every callback of the editing session to this node.
+ * The hint is a path segment ("/lool/wopi/node/{node}/files/{id}"): editors build callback urls by appending to the
+ * WOPISrc path ("/contents"), so a query parameter hint would not survive.
+ */
+public final class NodeAffinity {
+    public static final String NODE = "node";
+    private static final String WOPI_PATH = "/lool/wopi/";
+
+    private static volatile boolean enabled = false;
+    private static volatile String node;
+
+    private NodeAffinity() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Configure node affinity. Node identifier defaults to the HOSTNAME environment variable.
+     *
+     * @param config Node affinity configuration
+     */
+    public static void configure(JsonObject config) {
+        node = config.getString(NODE, System.getenv("HOSTNAME"));
+        enabled = config.getBoolean("enabled", false) && node != null && !node.isEmpty();
+        MetricsHelper.gauge("wopi.affinity.hit.rate", NodeAffinity::hitRate);
+    }
+
+    /**
+     * Build WOPISrc of given document
+     *
+     * @param base       Module base url (scheme and host)
+     * @param documentId Document identifier
+     * @return WOPISrc, holding the node hint when affinity is enabled
+     */
+    public static String wopiSrc(String base, String documentId) {
+        if (!enabled) {
+            return base + WOPI_PATH + "files/" + documentId;
+        }
+        return base + WOPI_PATH + NODE + "/" + node + "/files/" + documentId;
+    }
+
+    /**
+     * Record whether given WOPI callback reached the node of its hint. Callbacks without hint are ignored.
+     *
+     * @param request WOPI callback request
+     */
+    public static void record(HttpServerRequest request) {
+        String hint = request.getParam(NODE);
+        if (hint == null) return;
+        MetricsHelper.increment(hint.equals(node) ? Metrics.AFFINITY_HIT : Metrics.AFFINITY_MISS);
+    }
+
+    private static double hitRate() {
+        long hits = MetricsHelper.get(Metrics.AFFINITY_HIT);
+        long total = hits + MetricsHelper.get(Metrics.AFFINITY_MISS);
+        return total == 0 ? 0d : (double) hits / total;
+    }
+}
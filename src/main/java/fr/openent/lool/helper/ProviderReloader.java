@@ -0,0 +1,152 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.provider.ProvidersSnapshot;
+import fr.openent.lool.provider.Wopi;
+import fr.openent.lool.service.SharedServices;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provider configuration hot reload. The leader instance of the node receiving the reload builds the new providers and
+ * warms their discovery indexes, then every instance of every node of the cluster swaps its providers snapshot. Requests already handled keep the previous snapshot, which is
+ * closed after a grace delay.
+ */
+public class ProviderReloader {
+    public static final String RELOAD_ADDRESS = "fr.openent.lool.providers.reload";
+    private static final String SWAP_ADDRESS = "fr.openent.lool.providers.swap";
+    public static final DeliveryOptions RELOAD_OPTIONS = new DeliveryOptions().setSendTimeout(TimeUnit.MINUTES.toMillis(2));
+
+    private final Logger log = LoggerFactory.getLogger(ProviderReloader.class);
+    private final Vertx vertx;
+    private final String host;
+    private final SharedServices services;
+    private final boolean leader;
+    private final long graceDelay;
+    private ProvidersSnapshot current;
+    private long lastModified = -1L;
+
+    /**
+     * Register instance reload consumers. Must be created on the verticle instance context.
+     *
+     * @param vertx           Vertx instance
+     * @param host            Module host
+     * @param services        Shared services
+     * @param current         Providers snapshot in use
+     * @param leader          true if instance is the leader
+     * @param config          Reload configuration
+     */
+    public ProviderReloader(Vertx vertx, String host, SharedServices services, ProvidersSnapshot current, boolean leader,
+                            JsonObject config) {
+        this.vertx = vertx;
+        this.host = host;
+        this.services = services;
+        this.current = current;
+        this.leader = leader;
+        this.graceDelay = TimeUnit.SECONDS.toMillis(config.getLong("grace-seconds", 60L));
+        // Swap is published cluster wide, every node reloads
+        vertx.eventBus().<JsonObject>consumer(SWAP_ADDRESS, this::swap);
+        if (!leader) {
+            return;
+        }
+        vertx.eventBus().<JsonObject>localConsumer(RELOAD_ADDRESS, this::reload);
+        String path = config.getString("path");
+        if (path != null) {
+            vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.getLong("interval-seconds", 10L)), timer -> watch(path));
+        }
+    }
+
+    /**
+     * Build and warm providers of the "wopi" configuration given as message body, then ask every instance of the
+     * cluster to swap its providers. Discovery indexes are shared, the leader warms them once.
+     *
+     * @param message Event bus message
+     */
+    private void reload(Message<JsonObject> message) {
+        JsonObject wopi = message.body();
+        ProvidersSnapshot warm;
+        try {
+            // Warm providers only run discovery, they do not monitor backend servers
+            warm = ProvidersSnapshot.build(vertx, wopi, host, services, false);
+        } catch (Exception e) {
+            log.error("[LOOL@ProviderReloader::reload] Invalid providers configuration", e);
+            message.fail(400, e.getMessage());
+            return;
+        }
+
+        List<Future<Boolean>> discoveries = new ArrayList<>();
+        for (Wopi wp : warm.providers()) {
+            Promise<Boolean> discovery = Promise.promise();
+            wp.helper().discover(wp, discovery::complete);
+            discoveries.add(discovery.future());
+        }
+        Future.join(discoveries).onComplete(result -> {
+            warm.close();
+            if (!discoveries.stream().allMatch(discovery -> Boolean.TRUE.equals(discovery.result()))) {
+                message.fail(502, "Providers discovery failed");
+                return;
+            }
+            vertx.eventBus().publish(SWAP_ADDRESS, wopi);
+            message.reply(new JsonObject().put(Field.STATUS, Field.OK).put("providers", warm.providers().size())
+                    .put("scope", "cluster"));
+        });
+    }
+
+    /**
+     * Swap instance providers snapshot. Previous snapshot is closed once requests it handles are done.
+     *
+     * @param message Event bus message holding the "wopi" configuration
+     */
+    private void swap(Message<JsonObject> message) {
+        ProvidersSnapshot snapshot;
+        try {
+            snapshot = ProvidersSnapshot.build(vertx, message.body(), host, services, leader);
+        } catch (Exception e) {
+            log.error("[LOOL@ProviderReloader::swap] Invalid providers configuration", e);
+            return;
+        }
+
+        ProvidersSnapshot previous = current;
+        current = snapshot;
+        previous.stopMonitoring();
+        // Provider context is keyed by configuration, a changed provider gets a new context on its next request
+        snapshot.retainServers();
+        snapshot.publish(vertx.getOrCreateContext());
+        if (leader) {
+            snapshot.configureBulkheads();
+            services.templateService().refresh(snapshot.templates(), status -> log.info("Libre Office Online templates " + (Boolean.TRUE.equals(status) ? "OK" : "KO")));
+        }
+        vertx.setTimer(graceDelay, timer -> previous.close());
+        log.info("[LOOL@ProviderReloader::swap] Providers configuration reloaded");
+    }
+
+    /**
+     * Reload providers when configuration file changes
+     *
+     * @param path Configuration file path
+     */
+    private void watch(String path) {
+        vertx.fileSystem().props(path)
+                .onFailure(err -> log.error("[LOOL@ProviderReloader::watch] Failed to read " + path + " : " + err.getMessage()))
+                .onSuccess(props -> {
+                    boolean changed = lastModified >= 0 && props.lastModifiedTime() != lastModified;
+                    lastModified = props.lastModifiedTime();
+                    if (!changed) return;
+                    vertx.fileSystem().readFile(path)
+                            .map(buffer -> new JsonObject(buffer))
+                            .compose(wopi -> vertx.eventBus().<JsonObject>request(RELOAD_ADDRESS, wopi, RELOAD_OPTIONS))
+                            .onSuccess(reply -> log.info("[LOOL@ProviderReloader::watch] Providers reloaded from " + path))
+                            .onFailure(err -> log.error("[LOOL@ProviderReloader::watch] Failed to reload providers from " + path + " : " + err.getMessage()));
+                });
+    }
+}
@@ -0,0 +1,222 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.bean.RetentionPolicy;
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.Utils;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.mongodb.MongoDbResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
+
+/**
+ * Background revisions compaction. Documents that got a new revision are marked, a periodic job applies the
+ * retention policy on a limited batch of marked documents and queues expired revision files for removal. Expired
+ * revisions sizes are credited back to their owners quota, as the workspace does when a revision is deleted.
+ * Marked documents are claimed with a lease, so that a document is compacted by a single node at a time.
+ */
+public class RevisionCompactor {
+    private static final String COMPACTION_COLLECTION = "lool_revision_compaction";
+    private static final String QUOTA_BUS_ADDRESS = "org.entcore.workspace.quota";
+    private static final String USER_ID = "userId";
+    private static final String LEASE = "lease";
+
+    private final Logger log = LoggerFactory.getLogger(RevisionCompactor.class);
+    private final EventBus eb;
+    private final StorageGarbageCollector garbageCollector;
+    private final RetentionPolicy policy;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long lease;
+    private volatile boolean running = false;
+
+    public RevisionCompactor(Vertx vertx, StorageGarbageCollector garbageCollector, JsonObject config) {
+        this.eb = vertx.eventBus();
+        this.garbageCollector = garbageCollector;
+        this.policy = new RetentionPolicy(config);
+        this.enabled = config.getBoolean("enabled", false);
+        this.batchSize = config.getInteger("batch-size", 10);
+        this.lease = TimeUnit.SECONDS.toMillis(config.getLong("lease-seconds", 600L));
+        if (enabled) {
+            vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.getLong("interval-seconds", 60L)), timer -> compact());
+        }
+    }
+
+    /**
+     * Mark given document for compaction. It should be called each time a revision is created
+     *
+     * @param documentId Document identifier
+     */
+    public void mark(String documentId) {
+        if (!enabled) return;
+        JsonObject matcher = new JsonObject().put(Field._ID, documentId);
+        JsonObject update = new JsonObject().put(Field.$SET, new JsonObject().put(Field.DATE, MongoDb.now()));
+        MongoDb.getInstance().update(COMPACTION_COLLECTION, matcher, update, true, false, message -> {
+            if (!Field.OK.equals(message.body().getString(Field.STATUS))) {
+                log.error("[RevisionCompactor@mark] Failed to mark document " + documentId + " for compaction");
+            }
+        });
+    }
+
+    /**
+     * Compact next batch of marked documents. Documents are claimed and compacted one after the other
+     */
+    private void compact() {
+        if (running) return;
+        running = true;
+        compact(0).onComplete(done -> running = false);
+    }
+
+    private Future<Void> compact(int compacted) {
+        if (compacted >= batchSize) return Future.succeededFuture();
+        return claim().compose(mark -> mark == null
+                ? Future.succeededFuture()
+                : compact(mark.getString(Field._ID)).compose(v -> unmark(mark)).compose(v -> compact(compacted + 1)));
+    }
+
+    /**
+     * Claim the oldest marked document that no node is compacting. A claimed mark is leased, so that another node
+     * does not compact the same document, and expires if the node stops while compacting.
+     *
+     * @return Future completed with claimed mark, null when no document is to compact
+     */
+    private Future<JsonObject> claim() {
+        Promise<JsonObject> promise = Promise.promise();
+        long now = System.currentTimeMillis();
+        JsonObject matcher = new JsonObject().put("$or", new JsonArray()
+                .add(new JsonObject().put(LEASE, new JsonObject().put("$exists", false)))
+                .add(new JsonObject().put(LEASE, new JsonObject().put("$lt", now))));
+        JsonObject update = new JsonObject().put(Field.$SET, new JsonObject().put(LEASE, now + lease));
+        JsonObject sort = new JsonObject().put(Field.DATE, 1);
+        MongoDb.getInstance().findAndModify(COMPACTION_COLLECTION, matcher, update, sort, null, false, true, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (either.isLeft()) {
+                log.error("[RevisionCompactor@claim] Failed to claim document to compact : " + either.left().getValue());
+                promise.complete(null);
+                return;
+            }
+            JsonObject mark = either.right().getValue();
+            promise.complete(mark == null || !mark.containsKey(Field._ID) ? null : mark);
+        });
+        return promise.future();
+    }
+
+    /**
+     * Apply retention policy on given document revisions
+     *
+     * @param documentId Document identifier
+     * @return Future completed once document is compacted
+     */
+    private Future<Void> compact(String documentId) {
+        Promise<Void> promise = Promise.promise();
+        JsonObject matcher = new JsonObject().put(Field.DOCUMENTID, documentId);
+        JsonObject sort = new JsonObject().put(Field.DATE, -1);
+        JsonObject keys = new JsonObject().put(Field._ID, 1).put(Field.FILE, 1).put(Field.DATE, 1).put(USER_ID, 1).put("metadata.size", 1);
+        MongoDb.getInstance().find(Field.DOCUMENTSREVISION, matcher, sort, keys, MongoDbResult.validResultsHandler(either -> {
+            if (either.isLeft()) {
+                log.error("[RevisionCompactor@compact] Failed to fetch revisions of document " + documentId);
+                promise.complete();
+                return;
+            }
+            List<JsonObject> revisions = new ArrayList<>();
+            either.right().getValue().forEach(revision -> revisions.add((JsonObject) revision));
+            List<JsonObject> expired = policy.expired(revisions, System.currentTimeMillis());
+            List<Future<JsonObject>> deletions = new ArrayList<>();
+            expired.forEach(revision -> deletions.add(delete(revision.getString(Field._ID))));
+            Future.join(deletions).onComplete(v -> {
+                // Only revisions this compaction removed are credited and collected
+                Map<String, Long> released = new HashMap<>();
+                List<Future<Void>> removals = new ArrayList<>();
+                for (Future<JsonObject> deletion : deletions) {
+                    JsonObject revision = deletion.result();
+                    if (revision == null) continue;
+                    long size = revision.getJsonObject(Field.METADATA, new JsonObject()).getLong(Field.size, 0L);
+                    // Reclaimed bytes are counted by the garbage collector once the file is actually removed
+                    removals.add(garbageCollector.remove(revision.getString(Field.FILE), size));
+                    if (revision.getString(USER_ID) != null) released.merge(revision.getString(USER_ID), size, Long::sum);
+                }
+                MetricsHelper.add(Metrics.REVISIONS_COMPACTED, removals.size());
+                released.forEach(this::releaseQuota);
+                Future.join(removals).onComplete(r -> promise.complete());
+            });
+        }));
+        return promise.future();
+    }
+
+    /**
+     * Delete given revision
+     *
+     * @param revisionId Revision identifier
+     * @return Future completed with deleted revision, null when it was already deleted or on failure
+     */
+    private Future<JsonObject> delete(String revisionId) {
+        Promise<JsonObject> promise = Promise.promise();
+        JsonObject matcher = new JsonObject().put(Field._ID, revisionId);
+        MongoDb.getInstance().findAndModify(Field.DOCUMENTSREVISION, matcher, null, null, null, true, false, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (either.isLeft()) {
+                log.error("[RevisionCompactor@delete] Failed to delete expired revision " + revisionId + " : " + either.left().getValue());
+                promise.complete(null);
+                return;
+            }
+            JsonObject revision = either.right().getValue();
+            promise.complete(revision == null || !revision.containsKey(Field._ID) ? null : revision);
+        });
+        return promise.future();
+    }
+
+    /**
+     * Credit given size back to user quota
+     *
+     * @param userId User identifier
+     * @param size   Released size in bytes
+     */
+    private void releaseQuota(String userId, long size) {
+        if (size <= 0) return;
+        JsonObject action = new JsonObject()
+                .put("action", "updateQuota")
+                .put(USER_ID, userId)
+                .put("size", -size)
+                .put("threshold", 90);
+        eb.request(QUOTA_BUS_ADDRESS, action, handlerToAsyncHandler(message -> {
+            if (!Field.OK.equals(message.body().getString(Field.STATUS))) {
+                log.error("[RevisionCompactor@releaseQuota] Failed to release " + size + " bytes of user " + userId + " quota");
+            }
+        }));
+    }
+
+    /**
+     * Remove given mark, unless the document got a new revision while it was compacted: its mark is then released
+     * for a next compaction
+     *
+     * @param mark Claimed mark
+     * @return Future completed once the mark is removed or released
+     */
+    private Future<Void> unmark(JsonObject mark) {
+        Promise<Void> promise = Promise.promise();
+        JsonObject matcher = new JsonObject()
+                .put(Field._ID, mark.getString(Field._ID))
+                .put(Field.DATE, mark.getValue(Field.DATE));
+        MongoDb.getInstance().delete(COMPACTION_COLLECTION, matcher, deleted -> {
+            JsonObject release = new JsonObject().put("$unset", new JsonObject().put(LEASE, ""));
+            MongoDb.getInstance().update(COMPACTION_COLLECTION, new JsonObject().put(Field._ID, mark.getString(Field._ID)), release,
+                    released -> promise.complete());
+        });
+        return promise.future();
+    }
+}
@@ -0,0 +1,56 @@
+package fr.openent.lool.helper;
+
+import io.vertx.core.Future;
+
+import java.util.function.Supplier;
+
+/**
+ * Cache of a single value computed on demand. The value is served until it is older than the refresh interval, then
+ * the next caller computes it again. Callers arriving while it is computed share the same computation, so the loader
+ * runs at most once per interval whatever the number of callers.
+ *
+ * @param <T> Value type
+ */
+public class SingleFlightCache<T> {
+    private final long interval;
+    private final Supplier<Future<T>> loader;
+    private Future<T> current;
+    private long loadedAt = 0L;
+
+    /**
+     * @param interval Refresh interval, in milliseconds
+     * @param loader   Value loader
+     */
+    public SingleFlightCache(long interval, Supplier<Future<T>> loader) {
+        this.interval = interval;
+        this.loader = loader;
+    }
+
+    /**
+     * Get cached value, computing it when missing, failed or expired
+     *
+     * @return Future completed with the value
+     */
+    public synchronized Future<T> get() {
+        long now = System.currentTimeMillis();
+        boolean expired = current == null || current.failed() || (current.succeeded() && now - loadedAt >= interval);
+        if (expired) {
+            loadedAt = now;
+            current = loader.get();
+        }
+        return current;
+    }
+
+    /**
+     * Get a value computed from now on. A computation in flight is shared, a completed value is computed again
+     *
+     * @return Future completed with the value
+     */
+    public synchronized Future<T> refresh() {
+        if (current == null || current.isComplete()) {
+            loadedAt = System.currentTimeMillis();
+            current = loader.get();
+        }
+        return current;
+    }
+}
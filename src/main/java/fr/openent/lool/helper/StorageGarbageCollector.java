@@ -0,0 +1,204 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.mongodb.MongoDb;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.mongodb.MongoDbResult;
+import org.entcore.common.storage.Storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Background storage file remover. Files are persisted in a garbage collection and removed in batches so that saves
+ * do not wait for storage deletions. An entry is only deleted once its file is removed: failed batches are retried
+ * with a capped backoff, entries are never discarded. Each batch is leased by the node that claims it, so that the
+ * nodes of a cluster never remove the same batch.
+ */
+public class StorageGarbageCollector {
+    private static final String GARBAGE_COLLECTION = "lool_storage_garbage";
+    private static final String ATTEMPTS = "attempts";
+    private static final String NEXT = "next";
+    private static final String RECLAIMED = "reclaimed";
+    private static final String LEASE = "lease";
+
+    private final Logger log = LoggerFactory.getLogger(StorageGarbageCollector.class);
+    private final Storage storage;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long maxBackoff;
+    private final long lease;
+    private volatile long queued = 0L;
+    private volatile long failing = 0L;
+    private volatile boolean running = false;
+
+    public StorageGarbageCollector(Vertx vertx, Storage storage, JsonObject config) {
+        this.storage = storage;
+        this.batchSize = config.getInteger("batch-size", 50);
+        this.maxAttempts = config.getInteger("max-attempts", 5);
+        this.maxBackoff = config.getLong("max-backoff-ms", 300000L);
+        this.lease = config.getLong("lease-ms", 60000L);
+        vertx.setPeriodic(config.getLong("interval-ms", 5000L), timer -> collect());
+        // Gauges count the whole collection: they are refreshed far less often than batches are collected
+        vertx.setPeriodic(config.getLong("gauges-interval-ms", 60000L), timer -> refreshGauges());
+        MetricsHelper.gauge("storage.gc.queue", () -> queued);
+        MetricsHelper.gauge("storage.gc.failing", () -> failing);
+    }
+
+    /**
+     * Persist given file for removal
+     *
+     * @param fileId File identifier
+     * @return Future completed once the file is persisted in the garbage collection
+     */
+    public Future<Void> remove(String fileId) {
+        return remove(fileId, 0L);
+    }
+
+    /**
+     * Persist given revision file for removal. Its size is counted as reclaimed once the file is removed
+     *
+     * @param fileId    File identifier
+     * @param reclaimed Revision size in bytes
+     * @return Future completed once the file is persisted in the garbage collection
+     */
+    public Future<Void> remove(String fileId, long reclaimed) {
+        if (fileId == null) return Future.succeededFuture();
+        Promise<Void> promise = Promise.promise();
+        JsonObject matcher = new JsonObject().put(Field._ID, fileId);
+        JsonObject entry = new JsonObject()
+                .put(ATTEMPTS, 0)
+                .put(NEXT, System.currentTimeMillis())
+                .put(RECLAIMED, reclaimed)
+                .put(Field.DATE, MongoDb.now());
+        MongoDb.getInstance().update(GARBAGE_COLLECTION, matcher, new JsonObject().put("$setOnInsert", entry), true, false, message -> {
+            if (Field.OK.equals(message.body().getString(Field.STATUS))) {
+                promise.complete();
+            } else {
+                log.error("[StorageGarbageCollector@remove] Failed to queue file " + fileId + " for removal : " + message.body().getString("message"));
+                promise.fail("Failed to queue file " + fileId + " for removal");
+            }
+        });
+        return promise.future();
+    }
+
+    /**
+     * Remove next batch of due files
+     */
+    private void collect() {
+        if (running) return;
+        running = true;
+        long now = System.currentTimeMillis();
+        claim(now)
+                .compose(batch -> batch.isEmpty() ? Future.<Void>succeededFuture() : removeFiles(batch, now))
+                .onComplete(done -> running = false);
+    }
+
+    /**
+     * Claim a batch of due entries. Due entries are leased at once with a single update setting a lease identifier,
+     * then the batch is read back by this identifier. A leased entry is not due again before the lease expires, so
+     * that another node does not claim it while its file is removed.
+     */
+    private Future<List<JsonObject>> claim(long now) {
+        Promise<List<JsonObject>> promise = Promise.promise();
+        JsonObject due = new JsonObject().put(NEXT, new JsonObject().put("$lte", now));
+        JsonObject sort = new JsonObject().put(NEXT, 1);
+        JsonObject keys = new JsonObject().put(Field._ID, 1);
+        MongoDb.getInstance().find(GARBAGE_COLLECTION, due, sort, keys, 0, batchSize, batchSize, MongoDbResult.validResultsHandler(candidates -> {
+            if (candidates.isLeft()) {
+                log.error("[StorageGarbageCollector@claim] Failed to find garbage entries : " + candidates.left().getValue());
+                promise.complete(new ArrayList<>());
+                return;
+            }
+            JsonArray ids = new JsonArray();
+            candidates.right().getValue().forEach(entry -> ids.add(((JsonObject) entry).getString(Field._ID)));
+            if (ids.isEmpty()) {
+                promise.complete(new ArrayList<>());
+                return;
+            }
+            String leaseId = UUID.randomUUID().toString();
+            // Entries leased by another node since they were found are no longer due and are left out
+            JsonObject matcher = due.copy().put(Field._ID, new JsonObject().put("$in", ids));
+            JsonObject update = new JsonObject().put(Field.$SET, new JsonObject().put(LEASE, leaseId).put(NEXT, now + lease));
+            MongoDb.getInstance().update(GARBAGE_COLLECTION, matcher, update, false, true, leased -> {
+                if (!Field.OK.equals(leased.body().getString(Field.STATUS))) {
+                    log.error("[StorageGarbageCollector@claim] Failed to lease garbage entries : " + leased.body().getString("message"));
+                    promise.complete(new ArrayList<>());
+                    return;
+                }
+                MongoDb.getInstance().find(GARBAGE_COLLECTION, new JsonObject().put(LEASE, leaseId), MongoDbResult.validResultsHandler(batch -> {
+                    if (batch.isLeft()) {
+                        // Leased entries are claimed again once their lease expires
+                        log.error("[StorageGarbageCollector@claim] Failed to read leased garbage entries : " + batch.left().getValue());
+                        promise.complete(new ArrayList<>());
+                        return;
+                    }
+                    List<JsonObject> entries = new ArrayList<>();
+                    batch.right().getValue().forEach(entry -> entries.add((JsonObject) entry));
+                    promise.complete(entries);
+                }));
+            });
+        }));
+        return promise.future();
+    }
+
+    private Future<Void> removeFiles(List<JsonObject> batch, long now) {
+        Promise<Void> promise = Promise.promise();
+        JsonArray ids = new JsonArray();
+        batch.forEach(entry -> ids.add(entry.getString(Field._ID)));
+        storage.removeFiles(ids, result -> {
+            if (!Field.OK.equals(result.getString(Field.STATUS))) {
+                Future.join(batch.stream().map(entry -> retry(entry, now)).collect(Collectors.toList()))
+                        .onComplete(v -> promise.complete());
+                return;
+            }
+            MetricsHelper.add(Metrics.STORAGE_GC_REMOVED, batch.size());
+            MetricsHelper.add(Metrics.REVISIONS_RECLAIMED_BYTES, batch.stream().mapToLong(entry -> entry.getLong(RECLAIMED, 0L)).sum());
+            JsonObject matcher = new JsonObject().put(Field._ID, new JsonObject().put("$in", ids));
+            MongoDb.getInstance().delete(GARBAGE_COLLECTION, matcher, message -> {
+                // Entries left behind are removed again once their lease expires
+                if (!Field.OK.equals(message.body().getString(Field.STATUS))) {
+                    log.error("[StorageGarbageCollector@removeFiles] Failed to delete removed garbage entries");
+                }
+                promise.complete();
+            });
+        });
+        return promise.future();
+    }
+
+    /**
+     * Reschedule given entry with a capped exponential backoff
+     */
+    private Future<Void> retry(JsonObject entry, long now) {
+        int attempts = entry.getInteger(ATTEMPTS, 0) + 1;
+        if (attempts == maxAttempts) {
+            MetricsHelper.increment(Metrics.STORAGE_GC_FAILED);
+            log.error("[StorageGarbageCollector@retry] Failed to remove file " + entry.getString(Field._ID) + " after " + attempts + " attempts, still retrying");
+        }
+        long backoff = Math.min(maxBackoff, 1000L << Math.min(attempts, 20));
+        JsonObject update = new JsonObject().put(Field.$SET, new JsonObject().put(ATTEMPTS, attempts).put(NEXT, now + backoff));
+        Promise<Void> promise = Promise.promise();
+        MongoDb.getInstance().update(GARBAGE_COLLECTION, new JsonObject().put(Field._ID, entry.getString(Field._ID)), update,
+                message -> promise.complete());
+        return promise.future();
+    }
+
+    private void refreshGauges() {
+        MongoDb.getInstance().count(GARBAGE_COLLECTION, new JsonObject(), message -> {
+            if (Field.OK.equals(message.body().getString(Field.STATUS))) queued = message.body().getLong("count", 0L);
+        });
+        JsonObject failingMatcher = new JsonObject().put(ATTEMPTS, new JsonObject().put("$gte", maxAttempts));
+        MongoDb.getInstance().count(GARBAGE_COLLECTION, failingMatcher, message -> {
+            if (Field.OK.equals(message.body().getString(Field.STATUS))) failing = message.body().getLong("count", 0L);
+        });
+    }
+}
@@ -0,0 +1,235 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.bean.Template;
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.service.FileService;
+import fr.openent.lool.service.TemplateService;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.Utils;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.mongodb.MongoDbResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of template files already written in storage. Document creation claims a pooled file so that it only has to
+ * insert the workspace document. The pool is refilled in background, up to the target size by type. Pooled files
+ * older than max age are removed so that template changes are taken into account. Only the node holding the refill
+ * lease refills the pool, so that nodes of a cluster do not overshoot the target size.
+ */
+public class TemplatePool {
+    private static final String POOL_COLLECTION = "lool_template_pool";
+    private static final String CREATED = "created";
+    // Refill lease document, stored in the pool collection. It has no type so it is never claimed nor counted
+    private static final String LEASE_ID = "refill-lease";
+    private static final String HOLDER = "holder";
+    private static final String UNTIL = "until";
+
+    private final Logger log = LoggerFactory.getLogger(TemplatePool.class);
+    private final FileService fileService;
+    private final TemplateService templateService;
+    private final StorageGarbageCollector garbageCollector;
+    private final boolean enabled;
+    private final int targetSize;
+    private final int refillRate;
+    private final long maxAge;
+    private final Map<String, Integer> sizes = new ConcurrentHashMap<>();
+    private final String holder = UUID.randomUUID().toString();
+    private final long lease;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public TemplatePool(Vertx vertx, FileService fileService, TemplateService templateService, StorageGarbageCollector garbageCollector, JsonObject config) {
+        this.fileService = fileService;
+        this.templateService = templateService;
+        this.garbageCollector = garbageCollector;
+        this.enabled = config.getBoolean("enabled", false);
+        this.targetSize = config.getInteger("target-size", 20);
+        this.refillRate = config.getInteger("refill-rate", 5);
+        this.maxAge = TimeUnit.HOURS.toMillis(config.getLong("max-age-hours", 24L));
+        long interval = TimeUnit.SECONDS.toMillis(config.getLong("interval-seconds", 30L));
+        // The holder renews its lease on each refill, another node takes over once it misses a few
+        this.lease = 3 * interval;
+        if (enabled) {
+            vertx.setPeriodic(interval, timer -> refill());
+            MetricsHelper.gauge("template.pool.size", () -> new JsonObject(new ConcurrentHashMap<>(sizes)));
+        }
+    }
+
+    /**
+     * Claim a pooled template file. A claimed file is removed from the pool.
+     *
+     * @param type    Template type
+     * @param handler Function handler returning storage file, null when the pool is empty or disabled
+     */
+    public void claim(String type, Handler<JsonObject> handler) {
+        if (!enabled) {
+            handler.handle(null);
+            return;
+        }
+        JsonObject matcher = new JsonObject()
+                .put(Field.TYPE, type)
+                .put(CREATED, new JsonObject().put("$gt", System.currentTimeMillis() - maxAge));
+        JsonObject sort = new JsonObject().put(CREATED, 1);
+        MongoDb.getInstance().findAndModify(POOL_COLLECTION, matcher, null, sort, null, true, false, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            JsonObject pooled = either.isRight() ? either.right().getValue() : null;
+            if (either.isLeft()) {
+                log.error("[TemplatePool@claim] Failed to claim pooled template " + type + " : " + either.left().getValue());
+            }
+            if (pooled == null || pooled.getJsonObject(Field.FILE) == null) {
+                MetricsHelper.increment(Metrics.TEMPLATE_POOL_MISS);
+                handler.handle(null);
+            } else {
+                MetricsHelper.increment(Metrics.TEMPLATE_POOL_HIT);
+                handler.handle(pooled.getJsonObject(Field.FILE));
+            }
+        });
+    }
+
+    /**
+     * Remove expired pooled files then provision missing files of each template type, at most refill rate by type
+     */
+    private void refill() {
+        if (!running.compareAndSet(false, true)) return;
+        acquireLease().compose(held -> {
+            if (!held) return Future.<Void>succeededFuture();
+            Future<Void> chain = purge();
+            for (String type : templateService.types()) {
+                chain = chain.compose(v -> refill(type));
+            }
+            return chain;
+        }).onComplete(done -> running.set(false));
+    }
+
+    /**
+     * Acquire or renew the refill lease. The lease is created on first use; when another node holds a valid lease the
+     * upsert fails on the lease identifier and the lease is not acquired.
+     *
+     * @return Future completed with true if this node holds the lease
+     */
+    private Future<Boolean> acquireLease() {
+        Promise<Boolean> promise = Promise.promise();
+        long now = System.currentTimeMillis();
+        JsonObject matcher = new JsonObject()
+                .put(Field._ID, LEASE_ID)
+                .put("$or", new JsonArray()
+                        .add(new JsonObject().put(HOLDER, holder))
+                        .add(new JsonObject().put(UNTIL, new JsonObject().put("$lt", now))));
+        JsonObject update = new JsonObject().put(Field.$SET, new JsonObject().put(HOLDER, holder).put(UNTIL, now + lease));
+        MongoDb.getInstance().findAndModify(POOL_COLLECTION, matcher, update, null, null, false, true, true, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            promise.complete(either.isRight() && either.right().getValue() != null && holder.equals(either.right().getValue().getString(HOLDER)));
+        });
+        return promise.future();
+    }
+
+    private Future<Void> refill(String type) {
+        Promise<Void> promise = Promise.promise();
+        JsonObject matcher = new JsonObject()
+                .put(Field.TYPE, type)
+                .put(CREATED, new JsonObject().put("$gt", System.currentTimeMillis() - maxAge));
+        MongoDb.getInstance().count(POOL_COLLECTION, matcher, message -> {
+            if (!Field.OK.equals(message.body().getString(Field.STATUS))) {
+                log.error("[TemplatePool@refill] Failed to count pooled templates " + type);
+                promise.complete();
+                return;
+            }
+            int size = message.body().getInteger("count", 0);
+            sizes.put(type, size);
+            Future<Void> chain = Future.succeededFuture();
+            for (int i = 0; i < Math.min(targetSize - size, refillRate); i++) {
+                chain = chain.compose(v -> provision(type));
+            }
+            chain.onComplete(done -> promise.complete());
+        });
+        return promise.future();
+    }
+
+    /**
+     * Write a template file in storage and add it to the pool
+     *
+     * @param type Template type
+     * @return Future completed once the file is pooled
+     */
+    private Future<Void> provision(String type) {
+        Promise<Void> promise = Promise.promise();
+        Template template = templateService.get(type);
+        if (template == null) {
+            promise.complete();
+            return promise.future();
+        }
+        fileService.add(template.getContent(), template.getContentType(), "template." + type, either -> {
+            if (either.isLeft()) {
+                log.error("[TemplatePool@provision] Failed to write pooled template " + type + " : " + either.left().getValue());
+                promise.fail(either.left().getValue());
+                return;
+            }
+            JsonObject file = either.right().getValue();
+            JsonObject pooled = new JsonObject()
+                    .put(Field._ID, UUID.randomUUID().toString())
+                    .put(Field.TYPE, type)
+                    .put(Field.FILE, file)
+                    .put(CREATED, System.currentTimeMillis());
+            MongoDb.getInstance().insert(POOL_COLLECTION, pooled, MongoDbResult.validResultHandler(insert -> {
+                if (insert.isLeft()) {
+                    log.error("[TemplatePool@provision] Failed to pool template " + type + " : " + insert.left().getValue());
+                    garbageCollector.remove(file.getString(Field._ID));
+                    promise.fail(insert.left().getValue());
+                    return;
+                }
+                MetricsHelper.increment(Metrics.TEMPLATE_POOL_PROVISIONED);
+                sizes.merge(type, 1, Integer::sum);
+                promise.complete();
+            }));
+        });
+        return promise.future();
+    }
+
+    /**
+     * Remove expired pooled files from the pool and from storage
+     *
+     * @return Future completed once expired files are removed
+     */
+    private Future<Void> purge() {
+        Promise<Void> promise = Promise.promise();
+        JsonObject matcher = new JsonObject().put(CREATED, new JsonObject().put("$lte", System.currentTimeMillis() - maxAge));
+        MongoDb.getInstance().find(POOL_COLLECTION, matcher, MongoDbResult.validResultsHandler(either -> {
+            if (either.isLeft() || either.right().getValue().isEmpty()) {
+                promise.complete();
+                return;
+            }
+            JsonArray ids = new JsonArray();
+            JsonArray files = new JsonArray();
+            either.right().getValue().forEach(pooled -> {
+                ids.add(((JsonObject) pooled).getString(Field._ID));
+                files.add(((JsonObject) pooled).getJsonObject(Field.FILE, new JsonObject()).getString(Field._ID));
+            });
+            JsonObject deleteMatcher = new JsonObject().put(Field._ID, new JsonObject().put("$in", ids));
+            MongoDb.getInstance().delete(POOL_COLLECTION, deleteMatcher, MongoDbResult.validActionResultHandler(delete -> {
+                if (delete.isRight()) {
+                    List<Future<Void>> removals = new ArrayList<>();
+                    files.forEach(file -> removals.add(garbageCollector.remove((String) file)));
+                    Future.join(removals).onComplete(v -> promise.complete());
+                    return;
+                }
+                promise.complete();
+            }));
+        }));
+        return promise.future();
+    }
+}
@@ -22,6 +22,10 @@ public class TraceHelper {
                 .put("extension", extension);
 
         add(trace);
+        MonitoringStream.publish(MonitoringStream.EVENT, new JsonObject()
+                .put("event", event)
+                .put("document", document)
+                .put("extension", extension));
     }
 
     /**
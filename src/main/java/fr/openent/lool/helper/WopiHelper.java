@@ -3,11 +3,14 @@ package fr.openent.lool.helper;
 import com.mongodb.DBObject;
 import com.mongodb.client.model.Filters;
 import fr.openent.lool.bean.ActionURL;
+import fr.openent.lool.bean.ProviderContext;
 import fr.openent.lool.bean.Token;
+import fr.openent.lool.bean.WopiConfig;
 import fr.openent.lool.core.constants.Field;
 import fr.openent.lool.provider.Wopi;
-import fr.openent.lool.provider.WopiProviders;
+import fr.openent.lool.provider.WopiProvider;
 import fr.openent.lool.utils.Bindings;
+import fr.openent.lool.utils.Metrics;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.mongodb.MongoQueryBuilder;
 import fr.wseduc.webutils.Either;
@@ -19,6 +22,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.buffer.impl.BufferImpl;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.http.*;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -31,67 +35,254 @@ import org.entcore.common.user.UserUtils;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class WopiHelper {
 
     private static final String DISCOVER_COLLECTION = "lool_discover";
+    private static final String DISCOVER_URI = "/hosting/discovery";
+    private static final int RING_REPLICAS = 100;
     public static final String TOKEN_COLLECTION = "wopi_token";
+    // Set on tokens that are not invalidated, backs the unique index of live tokens by user, session and document
+    private static final String LIVE = "live";
+    // Editor tabs using the token
+    private static final String OPENERS = "openers";
+    private static final String DISCOVERED_ADDRESS = "fr.openent.lool.discovered";
 
     private final Logger log = LoggerFactory.getLogger(WopiHelper.class);
     private final HttpHelper httpHelper;
-    private final HttpClient httpClient;
+    // Backend servers HTTP clients, by server url
+    private final Map<String, HttpClient> httpClients = new LinkedHashMap<>();
+    private final ConsistentHashRing ring;
+    private final Set<String> unhealthy;
+    private final BackendState state;
+    private final CapacityMonitor capacityMonitor;
     private final EventBus eb;
     private final String providerId;
+    private final long rightsRevalidationDelay;
+    private final WorkerPool workerPool;
+    private final Vertx vertx;
+    private final WopiConfig config;
+    // Context is shared by the helpers built from the same configuration, a reload changing it builds a new context
+    private final String contextKey;
+    private MessageConsumer<String> discovered;
+    private long probeTimer = -1L;
 
-    public WopiHelper(Vertx vertx, URL url, WopiProviders type, String providerId) {
+    /**
+     * @param vertx      Vertx instance
+     * @param config     Provider configuration
+     * @param providerId Provider identifier
+     * @param workerPool Worker pool
+     * @param state      JVM wide state of the provider backend servers
+     * @param leader     true to probe and scrape backend servers. Only one helper of a provider should be leader
+     */
+    public WopiHelper(Vertx vertx, WopiConfig config, String providerId, WorkerPool workerPool, BackendState state, boolean leader) {
+        this.vertx = vertx;
+        this.state = state;
+        this.unhealthy = state.unhealthy();
+        this.config = config;
         this.httpHelper = new HttpHelper(vertx);
         this.eb = vertx.eventBus();
-        this.httpClient = httpHelper.generateHttpClient(url, type);
+        for (URL server : config.servers()) {
+            this.httpClients.put(server.toString(), httpHelper.generateHttpClient(server, config.type()));
+        }
+        this.ring = new ConsistentHashRing(httpClients.keySet(), RING_REPLICAS);
+        this.contextKey = config.type() + "|" + config.templates() + "|" + httpClients.keySet();
+        this.capacityMonitor = new CapacityMonitor(vertx, providerId, httpClients.keySet(),
+                new HttpCapacityProbe(httpClients, config.capacity()), config.capacity(), state, leader);
         this.providerId = providerId;
+        this.rightsRevalidationDelay = TimeUnit.SECONDS.toMillis(config.rights_revalidation_delay());
+        this.workerPool = workerPool;
+        if (!leader) {
+            return;
+        }
+        if (httpClients.size() > 1) {
+            this.probeTimer = vertx.setPeriodic(TimeUnit.SECONDS.toMillis(config.health_interval()), timer -> probe());
+        }
+        MetricsHelper.gauge("wopi." + providerId + ".servers.unhealthy", unhealthy::size);
+        // Provider context is shared: the leader rebuilds it once a discovery of the provider is done
+        this.discovered = eb.consumer(DISCOVERED_ADDRESS, message -> {
+            if (providerId.equals(message.body())) refreshContext();
+        });
+    }
+
+    /**
+     * Forget shared state of servers removed from the provider pool by a configuration reload
+     */
+    public void retainServers() {
+        state.retain(httpClients.keySet());
     }
 
     /**
-     * Returns a Libre Office authentication token.
+     * Stop probing and scraping backend servers. Used when the provider is replaced by a configuration reload, so that
+     * the new provider is the only one monitoring the servers
+     */
+    public void stopMonitoring() {
+        if (probeTimer >= 0) vertx.cancelTimer(probeTimer);
+        probeTimer = -1L;
+        if (discovered != null) discovered.unregister();
+        discovered = null;
+        capacityMonitor.close();
+    }
+
+    /**
+     * Release helper resources: monitoring is stopped and HTTP clients are closed. Used once the provider is
+     * replaced by a configuration reload
+     */
+    public void close() {
+        stopMonitoring();
+        httpClients.values().forEach(HttpClient::close);
+    }
+
+    /**
+     * Returns a Libre Office authentication token. If the user already holds a valid token for the document in the
+     * same session, this token is extended and returned instead of issuing a new one. User rights on the document
+     * are computed once and stored in the token.
      *
-     * @param request Client request
-     * @param handler Function handler returning data
+     * @param request  Client request
+     * @param readOnly Restrict a new token to read access. An extended token keeps its access
+     * @param handler  Function handler returning data
      */
-    public void generateLoolToken(HttpServerRequest request, Handler<Either<String, Token>> handler) {
+    public void generateLoolToken(HttpServerRequest request, boolean readOnly, Handler<Either<String, Token>> handler) {
         new Token(eb, request, event -> {
             if (event.isRight()) {
                 Token token = event.right().getValue();
-                MongoDb.getInstance().save(WopiHelper.TOKEN_COLLECTION, token.toJSON(), saveEvent -> {
-                    JsonObject body = saveEvent.body();
-                    if (Field.OK.equals(body.getString(Field.STATUS))) {
-                        handler.handle(new Either.Right<>(token));
-                    } else {
-                        handler.handle(new Either.Left<>(body.getString("message")));
-                    }
+                token.setReadOnly(readOnly);
+                userRights(token.getSessionId(), token.getDocument(), rights -> {
+                    token.setRights(rights.getBoolean(Field.READ), rights.getBoolean(Field.WRITE));
+                    saveToken(token, handler);
                 });
             } else {
                 log.error("[WopiHelper@generateLoolToken] Failed to create token", event.left().getValue());
+                handler.handle(new Either.Left<>(event.left().getValue()));
             }
 
         });
     }
 
+    /**
+     * Check whether given user already holds a valid token of given document in given session. Such a token is
+     * reused by the next open.
+     *
+     * @param userId     User identifier
+     * @param documentId Document identifier
+     * @param sessionId  User session identifier
+     * @param handler    Function handler returning true if a valid token exists
+     */
+    public void hasLiveToken(String userId, String documentId, String sessionId, Handler<Boolean> handler) {
+        if (userId == null || sessionId == null) {
+            handler.handle(Boolean.FALSE);
+            return;
+        }
+        JsonObject matcher = new JsonObject()
+                .put("user", userId)
+                .put("document", documentId)
+                .put("sessionId", sessionId)
+                .put(LIVE, true);
+        MongoDb.getInstance().count(TOKEN_COLLECTION, matcher, message -> handler.handle(
+                Field.OK.equals(message.body().getString(Field.STATUS)) && message.body().getInteger("count", 0) > 0));
+    }
+
+    /**
+     * Save given token. An existing valid token of the same user, session and document is extended instead. Live
+     * tokens are unique by user, session and document: when a concurrent open inserts the token first, the upsert
+     * fails on the unique index and is retried once to reuse that token. Each open counts one more opener of the token.
+     *
+     * @param token   Token to save
+     * @param handler Function handler returning data
+     */
+    private void saveToken(Token token, Handler<Either<String, Token>> handler) {
+        saveToken(token, true, handler);
+    }
+
+    private void saveToken(Token token, boolean retry, Handler<Either<String, Token>> handler) {
+        JsonObject matcher = new JsonObject()
+                .put("user", token.getUser())
+                .put("document", token.getDocument())
+                .put("sessionId", token.getSessionId())
+                .put(LIVE, true);
+        JsonObject fields = token.toJSON();
+        fields.remove(Field._ID);
+        JsonObject onInsert = new JsonObject().put(Field._ID, token.getId());
+        if (token.isReadOnly()) {
+            // Editors already opened in this session keep their access
+            onInsert.put(Token.RIGHTS, fields.remove(Token.RIGHTS));
+            onInsert.put(Token.READ_ONLY, fields.remove(Token.READ_ONLY));
+        }
+        JsonObject update = new JsonObject()
+                .put(Field.$SET, fields)
+                .put("$setOnInsert", onInsert)
+                .put("$inc", new JsonObject().put(OPENERS, 1));
+        MongoDb.getInstance().findAndModify(WopiHelper.TOKEN_COLLECTION, matcher, update, null, null, false, true, true, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (retry && either.isLeft() && either.left().getValue() != null && either.left().getValue().contains("E11000")) {
+                saveToken(token, false, handler);
+                return;
+            }
+            if (either.isLeft() || either.right().getValue() == null || !either.right().getValue().containsKey(Field._ID)) {
+                String err = "[WopiHelper@saveToken] Failed to save token";
+                log.error(err, either.isLeft() ? either.left().getValue() : "");
+                handler.handle(new Either.Left<>(err));
+                return;
+            }
+            Token issued = new Token(either.right().getValue());
+            if (token.getId().equals(issued.getId())) {
+                MetricsHelper.increment(Metrics.TOKEN_ISSUED);
+                MonitoringStream.publish(MonitoringStream.OPENED, new JsonObject()
+                        .put("document", issued.getDocument())
+                        .put("filename", issued.getFilename()));
+            } else {
+                MetricsHelper.increment(Metrics.TOKEN_REUSED);
+                issued.setReused(true);
+            }
+            handler.handle(new Either.Right<>(issued));
+        });
+    }
+
+
+    /**
+     * Get backend server of given document. Documents are spread across healthy servers by consistent hashing, so
+     * that every co-editor of a document is sent to the same server.
+     *
+     * @param documentId Document identifier
+     * @return Backend server url
+     */
+    public String server(String documentId) {
+        if (httpClients.size() == 1) return ring.pick(documentId);
+        String server = ring.pick(documentId, member -> !unhealthy.contains(member));
+        return server != null ? server : ring.pick(documentId);
+    }
+
+    /**
+     * Get capacity monitor of provider backend servers
+     *
+     * @return Capacity monitor
+     */
+    public CapacityMonitor capacity() {
+        return capacityMonitor;
+    }
 
     /**
      * Get action url from the discovery database
      *
      * @param contentType File content-type
      * @param action      Optional. User action
+     * @param server      Backend server url
      * @param handler     Function handler returning data
      */
-    public void getActionUrl(String contentType, String action, Handler<Either<String, ActionURL>> handler) {
+    public void getActionUrl(String contentType, String action, String server, Handler<Either<String, ActionURL>> handler) {
         if (contentType == null) {
             handler.handle(new Either.Left<>("content-type  must be provided"));
             return;
         }
         JsonObject filter = new JsonObject()
                 .put("content-type", contentType)
-                .put("providerId", this.providerId);
+                .put("providerId", this.providerId)
+                .put("server", server);
 
         if (action != null) {
             filter.put("action", action);
@@ -117,54 +308,109 @@ public class WopiHelper {
     }
 
     /**
-     * Discover Libre Office Online format capabilities
+     * Discover Libre Office Online format capabilities of every backend server
      *
      * @param handler Function handler returning data
      */
     public void discover(Wopi wopi, Handler<Boolean> handler) {
-        String discoverUri = "/hosting/discovery";
+        List<Future<Boolean>> discoveries = new ArrayList<>();
+        httpClients.keySet().forEach(server -> discoveries.add(discover(server)));
+        Future.join(discoveries).onComplete(result -> {
+            eb.publish(DISCOVERED_ADDRESS, providerId);
+            handler.handle(discoveries.stream().allMatch(discovery -> Boolean.TRUE.equals(discovery.result())));
+        });
+    }
 
+    /**
+     * Discover format capabilities of given backend server
+     *
+     * @param server Backend server url
+     * @return Future completed with discovery status
+     */
+    private Future<Boolean> discover(String server) {
+        Promise<Boolean> promise = Promise.promise();
         RequestOptions requestOptions = new RequestOptions()
-                .setURI(discoverUri);
+                .setURI(DISCOVER_URI);
 
-        httpClient.request(requestOptions)
+        httpClients.get(server).request(requestOptions)
                 .flatMap(HttpClientRequest::send)
                 .onSuccess(response ->{
                     if (response.statusCode() != 200) {
-                        log.error("[Lool@WopiHelper::discover] An error occurred when discovering wopi api.");
-                        handler.handle(false);
+                        log.error("[Lool@WopiHelper::discover] An error occurred when discovering wopi api " + server);
+                        promise.complete(false);
                     } else {
                         Buffer responseBuffer = new BufferImpl();
                         response.handler(responseBuffer::appendBuffer);
-                        response.endHandler(aVoid -> parseDiscover(wopi, responseBuffer, handler));
+                        response.endHandler(aVoid -> parseDiscover(server, responseBuffer, promise::complete));
                         response.exceptionHandler(throwable -> {
-                            log.error("[LOOL@WopiHelper::discover] Fail to request : " + throwable);
-                            handler.handle(false);
+                            log.error("[LOOL@WopiHelper::discover] Fail to request " + server + " : " + throwable);
+                            promise.tryComplete(false);
                         });
                     }
                 })
                 .onFailure(err -> {
-                    log.error("[LOOL@WopiHelper::discover] Error on request: " + err.getMessage());
-                    handler.handle(false);
+                    log.error("[LOOL@WopiHelper::discover] Error on request " + server + ": " + err.getMessage());
+                    promise.complete(false);
                 });
+        return promise.future();
     }
 
     /**
-     * Parse discover file
+     * Parse discover file of given backend server. XML parsing is executed on the worker pool
      *
+     * @param server  backend server url
      * @param buffer  discover file
      * @param handler Function handler returning data
      */
-    private void parseDiscover(Wopi wopi, Buffer buffer, Handler<Boolean> handler) {
-        JsonArray actions = wopi.provider().parseDiscovery(wopi.id(), buffer);
-        MongoDb.getInstance().delete(DISCOVER_COLLECTION, new JsonObject().put("providerId", wopi.id()), MongoDbResult.validResultHandler(delete -> {
-            if (delete.isLeft()) {
+    private void parseDiscover(String server, Buffer buffer, Handler<Boolean> handler) {
+        workerPool.execute("discovery", () -> WopiProvider.parseDiscovery(providerId, buffer)).onComplete(parse -> {
+            if (parse.failed()) {
+                log.error("[Lool@WopiHelper::parseDiscover] Failed to parse discovery file", parse.cause());
                 handler.handle(Boolean.FALSE);
                 return;
             }
+            JsonArray actions = parse.result();
+            long discovered = System.currentTimeMillis();
+            actions.forEach(action -> ((JsonObject) action).put("server", server).put("discovered", discovered));
+            // New actions are inserted before previous ones are removed, so the discovery index is never empty
+            MongoDb.getInstance().insert(DISCOVER_COLLECTION, actions, MongoDbResult.validResultHandler(insert -> {
+                if (insert.isLeft()) {
+                    handler.handle(Boolean.FALSE);
+                    return;
+                }
 
-            MongoDb.getInstance().insert(DISCOVER_COLLECTION, actions, MongoDbResult.validResultHandler(either -> handler.handle(either.isRight())));
-        }));
+                // Only actions older than this discovery are removed, a concurrent newer discovery keeps its own.
+                // Actions discovered before servers were tagged are removed too
+                JsonObject matcher = new JsonObject()
+                        .put("providerId", providerId)
+                        .put("$and", new JsonArray().add(new JsonObject().put("$or", new JsonArray()
+                                .add(new JsonObject().put("discovered", new JsonObject().put("$lt", discovered)))
+                                .add(new JsonObject().put("discovered", new JsonObject().put("$exists", false))))))
+                        .put("$or", new JsonArray()
+                                .add(new JsonObject().put("server", server))
+                                .add(new JsonObject().put("server", new JsonObject().put("$exists", false))));
+                MongoDb.getInstance().delete(DISCOVER_COLLECTION, matcher, MongoDbResult.validResultHandler(either -> handler.handle(either.isRight())));
+            }));
+        });
+    }
+
+    /**
+     * Probe backend servers health. A failing server is drained: documents are assigned to the other servers until
+     * the server answers again. A recovered server is discovered again. Probes only run on the leader helper, so a
+     * recovery triggers a single discovery.
+     */
+    private void probe() {
+        httpClients.forEach((server, client) -> client.request(new RequestOptions().setURI(DISCOVER_URI).setTimeout(5000L))
+                .compose(request -> request.send().compose(response -> response.body().map(body -> response.statusCode())))
+                .onComplete(result -> {
+                    boolean healthy = result.succeeded() && result.result() == 200;
+                    if (healthy && unhealthy.remove(server)) {
+                        log.info("[Lool@WopiHelper::probe] Server " + server + " of provider " + providerId + " is back");
+                        discover(server);
+                    } else if (!healthy && unhealthy.add(server)) {
+                        log.error("[Lool@WopiHelper::probe] Server " + server + " of provider " + providerId + " is unreachable, draining it");
+                    }
+                }));
     }
 
     /**
@@ -178,7 +424,9 @@ public class WopiHelper {
     }
 
     /**
-     * Validate provided token. It check in token collection if token match session and file
+     * Validate provided token. It check in token collection if token match file. User right is read from the rights
+     * snapshot stored in the token. Once the snapshot is older than the configured delay, the token session is checked
+     * and the snapshot is computed again: share revocations and ended sessions are applied within this delay
      *
      * @param tokenId    Token identifier
      * @param documentId Document identifier
@@ -197,9 +445,14 @@ public class WopiHelper {
                     handler.handle(new JsonObject().put("valid", false).put("err", "No token found"));
                     return;
                 }
-                Token token = new Token(tokenEvent.right().getValue());
+                JsonObject tokenObject = tokenEvent.right().getValue();
+                Token token = new Token(tokenObject);
                 if (!token.isValid()) {
-                    handler.handle(new JsonObject().put("valid", false).put(Field.TOKEN, tokenEvent.right().getValue()));
+                    handler.handle(new JsonObject().put("valid", false).put(Field.TOKEN, tokenObject));
+                    return;
+                }
+                if (token.hasFreshRights(rightsRevalidationDelay)) {
+                    handler.handle(new JsonObject().put("valid", token.can(right)).put(Field.TOKEN, tokenObject));
                     return;
                 }
                 UserUtils.getSession(eb, token.getSessionId(), session -> {
@@ -207,7 +460,9 @@ public class WopiHelper {
                         handler.handle(new JsonObject().put("valid", false).put("err", session == null ? "Session not found" : "Invalid user"));
                         return;
                     }
-                    userCan(token.getSessionId(), documentId, right, can -> handler.handle(new JsonObject().put("valid", can).put(Field.TOKEN, tokenEvent.right().getValue())));
+                    refreshRights(token, session, rights -> handler.handle(new JsonObject()
+                            .put("valid", token.can(right))
+                            .put(Field.TOKEN, tokenObject.put(Token.RIGHTS, rights))));
                 });
             } else {
                 handler.handle(new JsonObject().put("valid", false));
@@ -215,6 +470,27 @@ public class WopiHelper {
         });
     }
 
+    /**
+     * Compute again rights snapshot of given token and store it in token collection
+     *
+     * @param token   Token to refresh
+     * @param session User session
+     * @param handler Function handler returning new rights snapshot
+     */
+    private void refreshRights(Token token, JsonObject session, Handler<JsonObject> handler) {
+        userRights(session, token.getDocument(), rights -> {
+            token.setRights(rights.getBoolean(Field.READ), rights.getBoolean(Field.WRITE));
+            JsonObject snapshot = token.rightsToJSON();
+            JsonObject matcher = new JsonObject().put(Field._ID, token.getId());
+            MongoDb.getInstance().update(TOKEN_COLLECTION, matcher, new JsonObject().put(Field.$SET, new JsonObject().put(Token.RIGHTS, snapshot)), message -> {
+                if (!Field.OK.equals(message.body().getString(Field.STATUS))) {
+                    log.error("[WopiHelper@refreshRights] Failed to store rights snapshot of token " + token.getId());
+                }
+            });
+            handler.handle(snapshot);
+        });
+    }
+
     /**
      * Check if the user can read file based on given session identifier and given document identifier
      *
@@ -237,6 +513,33 @@ public class WopiHelper {
         userCan(sessionId, documentId, Bindings.CONTRIB.toString(), handler);
     }
 
+    /**
+     * Get user read and write rights on the file based on given session identifier and given document identifier
+     *
+     * @param sessionId  Session identifier
+     * @param documentId Document identifier
+     * @param handler    Function handler returning rights as {read, write} object
+     */
+    public void userRights(String sessionId, String documentId, Handler<JsonObject> handler) {
+        UserUtils.getSession(eb, sessionId, session -> {
+            if (session == null) {
+                handler.handle(new JsonObject().put(Field.READ, false).put(Field.WRITE, false));
+                return;
+            }
+            userRights(session, documentId, handler);
+        });
+    }
+
+    private void userRights(JsonObject session, String documentId, Handler<JsonObject> handler) {
+        Promise<Boolean> readPromise = Promise.promise();
+        Promise<Boolean> writePromise = Promise.promise();
+        userCan(session, documentId, Bindings.READ.toString(), readPromise::complete);
+        userCan(session, documentId, Bindings.CONTRIB.toString(), writePromise::complete);
+        Future.all(readPromise.future(), writePromise.future()).onComplete(result -> handler.handle(new JsonObject()
+                .put(Field.READ, readPromise.future().result())
+                .put(Field.WRITE, writePromise.future().result())));
+    }
+
     /**
      * Check if the user can use the file. Verification is based on given session identifier, given document identifier and given right.
      *
@@ -251,33 +554,36 @@ public class WopiHelper {
                 handler.handle(false);
                 return;
             }
+            userCan(session, documentId, right, handler);
+        });
+    }
+
+    private void userCan(JsonObject session, String documentId, String right, Handler<Boolean> handler) {
+        List<Bson> groups = new ArrayList<>();
+        groups.add(Filters.and(
+                Filters.eq("userId", session.getString("userId")),
+                Filters.eq(right, true)
 
-            List<Bson> groups = new ArrayList<>();
+        ));
+        JsonArray groupsIds = session.getJsonArray("groupsIds");
+        for (int i = 0; i < groupsIds.size(); i++) {
+            String gpId = groupsIds.getString(i);
             groups.add(Filters.and(
-                    Filters.eq("userId", session.getString("userId")),
+                    Filters.eq("groupId", gpId),
                     Filters.eq(right, true)
-
             ));
-            JsonArray groupsIds = session.getJsonArray("groupsIds");
-            for (int i = 0; i < groupsIds.size(); i++) {
-                String gpId = groupsIds.getString(i);
-                groups.add(Filters.and(
-                        Filters.eq("groupId", gpId),
-                        Filters.eq(right, true)
-                ));
-            }
-            Bson query = Filters.and(
-                    Filters.eq(Field._ID, documentId),
-                    Filters.or(
-                            Filters.eq(Field.OWNER, session.getString("userId")),
-                            Filters.elemMatch("shared", Filters.or(groups.toArray(new Bson[0]))),
-                            Filters.elemMatch("inheritedShares", Filters.or(groups.toArray(new Bson[0])))
-                    )
-            );
-
-            MongoDb.getInstance().count(Field.DOCUMENTS, MongoQueryBuilder.build(query),
-                    res -> handler.handle(res.body() != null && Field.OK.equals(res.body().getString(Field.STATUS)) && 1 == res.body().getInteger("count")));
-        });
+        }
+        Bson query = Filters.and(
+                Filters.eq(Field._ID, documentId),
+                Filters.or(
+                        Filters.eq(Field.OWNER, session.getString("userId")),
+                        Filters.elemMatch("shared", Filters.or(groups.toArray(new Bson[0]))),
+                        Filters.elemMatch("inheritedShares", Filters.or(groups.toArray(new Bson[0])))
+                )
+        );
+
+        MongoDb.getInstance().count(Field.DOCUMENTS, MongoQueryBuilder.build(query),
+                res -> handler.handle(res.body() != null && Field.OK.equals(res.body().getString(Field.STATUS)) && 1 == res.body().getInteger("count")));
     }
 
     /**
@@ -293,7 +599,11 @@ public class WopiHelper {
                 .put(Field._ID, 0);
         MongoDb.getInstance().find(DISCOVER_COLLECTION, query, sort, keys, event -> {
             if (Field.OK.equals(event.body().getString(Field.STATUS))) {
-                promise.complete(event.body().getJsonArray("results"));
+                // Pooled servers share the same capabilities, each one is listed once
+                Map<String, Object> capabilities = new LinkedHashMap<>();
+                event.body().getJsonArray("results").forEach(capability -> capabilities.putIfAbsent(
+                        ((JsonObject) capability).getString("content-type") + "|" + ((JsonObject) capability).getString("extension"), capability));
+                promise.complete(new JsonArray(new ArrayList<>(capabilities.values())));
             } else {
                 promise.fail(event.body().getString("message"));
             }
@@ -302,6 +612,39 @@ public class WopiHelper {
         return promise.future();
     }
 
+    /**
+     * Get provider context (provider type, capabilities and templates), encoded once then served from memory.
+     * Context is built on first call and rebuilt when provider discovery or configuration changes.
+     *
+     * @return Future completed with provider context
+     */
+    public Future<ProviderContext> context() {
+        synchronized (state) {
+            Future<ProviderContext> context = state.context(contextKey);
+            if (context == null || context.failed()) {
+                context = loadContext();
+                state.context(contextKey, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * Rebuild provider context. Current context is served until the new one is built
+     */
+    private void refreshContext() {
+        loadContext()
+                .onSuccess(context -> state.context(contextKey, Future.succeededFuture(context)))
+                .onFailure(err -> log.error("[LOOL@WopiHelper::refreshContext] Failed to refresh provider " + providerId + " context : " + err.getMessage()));
+    }
+
+    private Future<ProviderContext> loadContext() {
+        return getCapabilities().map(capabilities -> new ProviderContext(new JsonObject()
+                .put("provider", config.type())
+                .put("capabilities", capabilities)
+                .put("templates", config.templates())));
+    }
+
     /**
      * Clear all Lool tokens
      *
@@ -341,7 +684,31 @@ public class WopiHelper {
         JsonObject matcher = new JsonObject()
                 .put(Field._ID, token);
 
-        MongoDb.getInstance().delete(TOKEN_COLLECTION, matcher, message -> handler.handle(Utils.validResult(message)));
+        // A token still used by editors of other tabs of the session is kept
+        matcher.put("$or", new JsonArray()
+                .add(new JsonObject().put(OPENERS, new JsonObject().put("$exists", false)))
+                .add(new JsonObject().put(OPENERS, new JsonObject().put("$lte", 0))));
+        // Removed token is returned so that closing of a still valid token is published to the monitoring stream
+        MongoDb.getInstance().findAndModify(TOKEN_COLLECTION, matcher, null, null, null, true, false, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (either.isLeft()) {
+                handler.handle(either);
+                return;
+            }
+            publishClosed(either.right().getValue());
+            handler.handle(new Either.Right<>(either.right().getValue() == null ? new JsonObject() : either.right().getValue()));
+        });
+    }
+
+    /**
+     * Publish closing of given token to the monitoring stream. Tokens already invalidated are ignored
+     *
+     * @param token Token document
+     */
+    private static void publishClosed(JsonObject token) {
+        if (token != null && token.containsKey("document") && !token.containsKey("valid")) {
+            MonitoringStream.publish(MonitoringStream.CLOSED, new JsonObject().put("document", token.getString("document")));
+        }
     }
 
     /**
@@ -353,16 +720,32 @@ public class WopiHelper {
     public void invalidateToken(String token, Handler<Either<String, JsonObject>> handler) {
         JsonObject matcher = new JsonObject()
                 .put(Field._ID, token);
-        MongoDb.getInstance().findOne(TOKEN_COLLECTION, matcher, message -> {
+        JsonObject release = new JsonObject().put("$inc", new JsonObject().put(OPENERS, -1));
+        MongoDb.getInstance().findAndModify(TOKEN_COLLECTION, matcher, release, null, null, false, true, false, message -> {
             Either<String, JsonObject> either = Utils.validResult(message);
             if (either.isLeft()) {
                 handler.handle(new Either.Left<>("Failed to retrieve token"));
                 return;
             }
-
-            JsonObject object = either.right().getValue();
-            object.put("valid", false);
-            MongoDb.getInstance().update(TOKEN_COLLECTION, matcher, object, messageUpdate -> handler.handle(Utils.validResult(messageUpdate)));
+            JsonObject released = either.right().getValue();
+            if (released == null || released.getInteger(OPENERS, 0) > 0) {
+                // Token is still used by editors of other tabs of the session
+                handler.handle(new Either.Right<>(new JsonObject()));
+                return;
+            }
+            JsonObject invalidMatcher = matcher.copy().put(OPENERS, new JsonObject().put("$lte", 0)).put(LIVE, true);
+            JsonObject invalidate = new JsonObject()
+                    .put(Field.$SET, new JsonObject().put("valid", false))
+                    .put("$unset", new JsonObject().put(LIVE, ""));
+            MongoDb.getInstance().findAndModify(TOKEN_COLLECTION, invalidMatcher, invalidate, null, null, false, false, false, messageUpdate -> {
+                Either<String, JsonObject> result = Utils.validResult(messageUpdate);
+                if (result.isRight()) {
+                    publishClosed(result.right().getValue());
+                    handler.handle(new Either.Right<>(new JsonObject()));
+                } else {
+                    handler.handle(result);
+                }
+            });
         });
     }
 }
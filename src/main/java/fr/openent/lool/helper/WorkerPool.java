@@ -0,0 +1,59 @@
+package fr.openent.lool.helper;
+
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool for blocking and CPU heavy tasks that must not run on the event loop. Tasks are rejected when
+ * the queue is full. Queue size, active tasks, queue wait and execution time by task name are exposed as metrics.
+ */
+public class WorkerPool {
+    private final WorkerExecutor executor;
+    private final int maxQueue;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public WorkerPool(Vertx vertx, JsonObject config) {
+        this.executor = vertx.createSharedWorkerExecutor("lool-worker", config.getInteger("size", 4),
+                config.getLong("max-execute-seconds", 60L), TimeUnit.SECONDS);
+        this.maxQueue = config.getInteger("max-queue", 256);
+        MetricsHelper.gauge("worker.queue", queued::get);
+        MetricsHelper.gauge("worker.active", active::get);
+    }
+
+    /**
+     * Execute given task on the worker pool
+     *
+     * @param name Task name, used for metrics
+     * @param task Blocking task
+     * @return Future completed with task result. Future fails when the task fails or when the queue is full
+     */
+    public <T> Future<T> execute(String name, Callable<T> task) {
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            MetricsHelper.increment(Metrics.WORKER_REJECTED);
+            return Future.failedFuture("[WorkerPool@execute] Worker queue is full, task " + name + " rejected");
+        }
+        long submitted = System.nanoTime();
+        return executor.executeBlocking(() -> {
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            long started = System.nanoTime();
+            MetricsHelper.add(Metrics.WORKER_WAIT_US, TimeUnit.NANOSECONDS.toMicros(started - submitted));
+            try {
+                return task.call();
+            } finally {
+                active.decrementAndGet();
+                MetricsHelper.add("worker." + name + ".count", 1L);
+                MetricsHelper.add("worker." + name + ".time.us", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+            }
+        }, false);
+    }
+}
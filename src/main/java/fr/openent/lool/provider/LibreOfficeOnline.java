@@ -7,9 +7,6 @@ import io.vertx.core.json.JsonObject;
 
 import java.net.URL;
 
-import static fr.wseduc.webutils.http.Renders.getHost;
-import static fr.wseduc.webutils.http.Renders.getScheme;
-
 public class LibreOfficeOnline extends WopiProvider {
 
     public LibreOfficeOnline(URL url) {
@@ -19,7 +16,7 @@ public class LibreOfficeOnline extends WopiProvider {
     @Override
     public String redirectURL(HttpServerRequest request, ActionURL actionURL, JsonObject document, Wopi wopiService) {
         return actionURL.url().getProtocol() + "://" + actionURL.url().getHost() + actionURL.url().getPath() +
-                "?WOPISrc=" + wopiService.helper().encodeWopiParam(getScheme(request) + "://" + getHost(request) + "/lool/wopi/files/" + document.getString(Field._ID)) +
+                "?WOPISrc=" + wopiSrc(request, document, wopiService) +
                 "&title=" + wopiService.helper().encodeWopiParam(document.getString(Field.NAME)) +
                 "&lang=fr" +
                 "&closebutton=0" +
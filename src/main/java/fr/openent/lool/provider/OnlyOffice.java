@@ -1,9 +1,7 @@
 package fr.openent.lool.provider;
 
 import fr.openent.lool.bean.ActionURL;
-import fr.openent.lool.core.constants.Field;
 import fr.wseduc.webutils.I18n;
-import fr.wseduc.webutils.http.Renders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 
@@ -24,7 +22,7 @@ public class OnlyOffice extends WopiProvider {
     public String redirectURL(HttpServerRequest request, ActionURL actionURL, JsonObject document, Wopi wopiService) {
         return actionURL.url().getProtocol() + "://" + actionURL.url().getAuthority() + actionURL.url().getPath() +
                 "?lang=fr" +
-                "&wopisrc=" + wopiService.helper().encodeWopiParam(Renders.getScheme(request) + "://" + Renders.getHost(request) + "/lool/wopi/files/" + document.getString(Field._ID));
+                "&wopisrc=" + wopiSrc(request, document, wopiService);
 //                "&wopisrc=" + Wopi.getInstance().helper().encodeWopiParam(getScheme(request) + "://" + "vertx:8090" + "/lool/wopi/files/" + document.getString(Field._ID));
     }
 
@@ -0,0 +1,149 @@
+package fr.openent.lool.provider;
+
+import fr.openent.lool.bean.WopiConfig;
+import fr.openent.lool.exception.InvalidWopiProviderException;
+import fr.openent.lool.exception.InvalidWopiServerException;
+import fr.openent.lool.helper.Bulkheads;
+import fr.openent.lool.helper.WopiHelper;
+import fr.openent.lool.service.SharedServices;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Providers built from a "wopi" configuration: providers by host, host bulkheads configuration and every configured
+ * provider. A snapshot is never modified, a configuration reload builds a new snapshot.
+ */
+public final class ProvidersSnapshot {
+    private static final String DEFAULT_PROVIDER_ID = "wopi1";
+
+    private final Map<String, Wopi> registry = new LinkedHashMap<>();
+    private final Map<String, JsonObject> bulkheads = new LinkedHashMap<>();
+    private final List<Wopi> providers = new ArrayList<>();
+
+    private ProvidersSnapshot() {
+    }
+
+    /**
+     * Build providers of given configuration
+     *
+     * @param vertx    Vertx instance
+     * @param wopi     "wopi" configuration
+     * @param host     Module host, used when configuration declares a single provider
+     * @param services Shared services
+     * @param leader   true if providers monitor their backend servers
+     * @return Providers snapshot
+     * @throws InvalidWopiServerException   if a provider server is missing or invalid
+     * @throws InvalidWopiProviderException if a provider type is unknown
+     */
+    public static ProvidersSnapshot build(Vertx vertx, JsonObject wopi, String host, SharedServices services, boolean leader) throws InvalidWopiServerException, InvalidWopiProviderException {
+        ProvidersSnapshot snapshot = new ProvidersSnapshot();
+        if (wopi.containsKey("providers")) {
+            final JsonObject providers = wopi.getJsonObject("providers", new JsonObject());
+            final JsonObject mappings = wopi.getJsonObject("mappings", new JsonObject());
+            for (String providerId : providers.getMap().keySet()) {
+                final Wopi wopiService = snapshot.provider(vertx, providers.getJsonObject(providerId), providerId, services, leader);
+                for (String mappedHost : mappings.getMap().keySet()) {
+                    // A mapping is either the provider identifier or an object holding the provider and host bulkheads
+                    Object mapping = mappings.getValue(mappedHost);
+                    JsonObject hostMapping = mapping instanceof JsonObject ? (JsonObject) mapping : new JsonObject().put("provider", mapping);
+                    if (providerId.equals(hostMapping.getString("provider"))) {
+                        snapshot.registry.put(mappedHost, wopiService);
+                        snapshot.bulkheads.put(mappedHost, wopi.getJsonObject("bulkhead", new JsonObject()).copy()
+                                .mergeIn(hostMapping.getJsonObject("bulkhead", new JsonObject())));
+                    }
+                }
+            }
+        } else {
+            final Wopi wopiService = snapshot.provider(vertx, wopi, DEFAULT_PROVIDER_ID, services, leader);
+            final String defaultHost = host.split("//")[1];
+            snapshot.registry.put(defaultHost, wopiService);
+            snapshot.bulkheads.put(defaultHost, wopi.getJsonObject("bulkhead", new JsonObject()));
+        }
+        return snapshot;
+    }
+
+    private Wopi provider(Vertx vertx, JsonObject config, String providerId, SharedServices services, boolean leader) throws InvalidWopiServerException, InvalidWopiProviderException {
+        WopiConfig wopiConfig;
+        WopiProvider provider;
+
+        try {
+            wopiConfig = WopiConfig.from(config);
+            provider = WopiProviderFactory.provider(wopiConfig.type(), wopiConfig.server());
+        } catch (NullPointerException | MalformedURLException e) {
+            close();
+            throw new InvalidWopiServerException(e);
+        }
+
+        if (Objects.isNull(provider)) {
+            close();
+            throw new InvalidWopiProviderException();
+        }
+
+        Wopi wopiService = new Wopi(provider, wopiConfig, new WopiHelper(vertx, wopiConfig, providerId, services.workerPool(),
+                services.backendState(providerId), leader), providerId);
+        providers.add(wopiService);
+        return wopiService;
+    }
+
+    /**
+     * Publish snapshot providers on given instance context
+     *
+     * @param context Verticle instance context
+     */
+    public void publish(Context context) {
+        WopisProviders.publish(context, registry, registry.isEmpty() ? null : registry.values().iterator().next());
+    }
+
+    /**
+     * Configure host bulkheads. Bulkheads of hosts that are not mapped anymore are removed.
+     */
+    public void configureBulkheads() {
+        bulkheads.forEach(Bulkheads::configure);
+        Bulkheads.retain(bulkheads.keySet());
+    }
+
+    public List<Wopi> providers() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    /**
+     * @return Template types of every provider
+     */
+    public Set<String> templates() {
+        Set<String> templateTypes = new HashSet<>();
+        providers.forEach(wp -> templateTypes.addAll(wp.config().templates()));
+        return templateTypes;
+    }
+
+    /**
+     * Forget backend state of servers that are not configured anymore
+     */
+    public void retainServers() {
+        providers.forEach(wp -> wp.helper().retainServers());
+    }
+
+    /**
+     * Stop backend servers monitoring of every provider
+     */
+    public void stopMonitoring() {
+        providers.forEach(wp -> wp.helper().stopMonitoring());
+    }
+
+    /**
+     * Release providers resources
+     */
+    public void close() {
+        providers.forEach(wp -> wp.helper().close());
+    }
+}
@@ -2,6 +2,8 @@ package fr.openent.lool.provider;
 
 import fr.openent.lool.bean.ActionURL;
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.NodeAffinity;
+import fr.wseduc.webutils.http.Renders;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
@@ -33,6 +35,18 @@ public abstract class WopiProvider {
 
     public abstract String redirectURL(HttpServerRequest request, ActionURL actionURL, JsonObject document, Wopi wopiService);
 
+    /**
+     * Build WOPISrc of given document, encoded as an url parameter. WOPISrc holds the node affinity hint when enabled.
+     *
+     * @param request     Server request
+     * @param document    Document
+     * @param wopiService Wopi service
+     * @return Encoded WOPISrc
+     */
+    protected String wopiSrc(HttpServerRequest request, JsonObject document, Wopi wopiService) {
+        return wopiService.helper().encodeWopiParam(NodeAffinity.wopiSrc(Renders.getScheme(request) + "://" + Renders.getHost(request), document.getString(Field._ID)));
+    }
+
     public URL url() {
         return this.url;
     }
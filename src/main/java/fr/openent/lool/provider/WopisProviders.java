@@ -19,28 +19,67 @@
 
 package fr.openent.lool.provider;
 
-import java.util.HashMap;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Providers registry. A registry is immutable: it is built once then published as a whole. Each verticle instance
+ * publishes its own registry on its context, so that requests use the providers (and HTTP clients) of the instance
+ * handling them. Calls made outside of a verticle context use the last published registry.
+ */
 public final class WopisProviders {
-    private static final Map<String, Wopi> mapWopiProviders = new HashMap<>();
+    private static final String REGISTRY = "lool.providers";
+    private static volatile Registry published = new Registry(Collections.emptyMap(), null);
+
     /**
      * The Constructor.
      */
     private WopisProviders() {
     }
 
-    public static void addProvider(String host, Wopi wopi) {
-        mapWopiProviders.put(host, wopi);
+    /**
+     * Publish providers registry
+     *
+     * @param context         Verticle instance context
+     * @param providers       Providers by host
+     * @param defaultProvider Provider used for unknown hosts
+     */
+    public static void publish(Context context, Map<String, Wopi> providers, Wopi defaultProvider) {
+        Registry registry = new Registry(Collections.unmodifiableMap(new LinkedHashMap<>(providers)), defaultProvider);
+        if (context != null) {
+            context.put(REGISTRY, registry);
+        }
+        published = registry;
     }
 
     public static Wopi getProvider(String host) {
-        final Wopi wopi = mapWopiProviders.get(host);
-        if (wopi == null) return getFistProvider();
+        Registry registry = current();
+        final Wopi wopi = registry.providers.get(host);
+        if (wopi == null) return registry.defaultProvider;
         return wopi;
     }
 
     public static Wopi getFistProvider() {
-        return mapWopiProviders.entrySet().iterator().next().getValue();
+        return current().defaultProvider;
+    }
+
+    private static Registry current() {
+        Context context = Vertx.currentContext();
+        Registry registry = context == null ? null : context.get(REGISTRY);
+        return registry != null ? registry : published;
+    }
+
+    private static final class Registry {
+        private final Map<String, Wopi> providers;
+        private final Wopi defaultProvider;
+
+        private Registry(Map<String, Wopi> providers, Wopi defaultProvider) {
+            this.providers = providers;
+            this.defaultProvider = defaultProvider;
+        }
     }
 }
@@ -0,0 +1,20 @@
+package fr.openent.lool.security;
+
+import fr.wseduc.webutils.http.Binding;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerRequest;
+import org.entcore.common.http.filter.ResourcesProvider;
+import org.entcore.common.user.UserInfos;
+
+/**
+ * Grant monitoring data to users holding the monitoring dashboard workflow right
+ */
+public class MonitoringFilter implements ResourcesProvider {
+    private static final String MONITORING_ACTION = "fr.openent.lool.controller.MonitoringController|monitoring";
+
+    @Override
+    public void authorize(HttpServerRequest request, Binding binding, UserInfos user, Handler<Boolean> handler) {
+        handler.handle(user != null && user.getAuthorizedActions() != null && user.getAuthorizedActions().stream()
+                .anyMatch(action -> MONITORING_ACTION.equals(action.getName())));
+    }
+}
@@ -33,5 +33,23 @@ public interface DocumentService {
      */
     void updateRevisionId(String documentId, String newFileId, Handler<Either<String, JsonObject>> handler);
 
+    /**
+     * Get digest of the last content saved by the connector for given document
+     *
+     * @param documentId Document identifier
+     * @param handler    Function handler returning data. Object contains saved file identifier and its digest, or is empty
+     */
+    void getContentDigest(String documentId, Handler<Either<String, JsonObject>> handler);
+
+    /**
+     * Record digest of the content saved for given document
+     *
+     * @param documentId Document identifier
+     * @param fileId     Saved file identifier
+     * @param digest     Saved content digest
+     * @param handler    Function handler returning data
+     */
+    void saveContentDigest(String documentId, String fileId, String digest, Handler<Either<String, JsonObject>> handler);
+
 //    void add()
 }
@@ -16,6 +16,13 @@ public interface FileService {
      */
     void get(String fileId, Handler<Buffer> handler);
 
+    /**
+     * Start reading given file in a short-lived cache. Next get call on the file will consume it
+     *
+     * @param fileId File id
+     */
+    void prefetch(String fileId);
+
     /**
      * Add file in file system
      *
@@ -43,4 +50,23 @@ public interface FileService {
      * @param handler     Function handler returning data
      */
     void add(Buffer file, String contentType, String filename, Handler<Either<String, JsonObject>> handler);
+
+    /**
+     * Add file in file systeme based on given buffer
+     *
+     * @param file        File buffer
+     * @param contentType File content type
+     * @param filename    Filename
+     * @param cached      Keep the written file in content cache. When false, it can be cached later with cache
+     * @param handler     Function handler returning data
+     */
+    void add(Buffer file, String contentType, String filename, boolean cached, Handler<Either<String, JsonObject>> handler);
+
+    /**
+     * Keep given stored file in content cache, if any
+     *
+     * @param fileId File id
+     * @param file   File buffer
+     */
+    void cache(String fileId, Buffer file);
 }
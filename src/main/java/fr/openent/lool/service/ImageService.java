@@ -0,0 +1,17 @@
+package fr.openent.lool.service;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+public interface ImageService {
+
+    /**
+     * Get image inserted in a document. When normalization is enabled, large images are downscaled and recompressed
+     * and the variant is cached. Other files are returned as is.
+     *
+     * @param fileId      Image file identifier
+     * @param contentType Image content type
+     * @param handler     Function handler returning data
+     */
+    void get(String fileId, String contentType, Handler<Buffer> handler);
+}
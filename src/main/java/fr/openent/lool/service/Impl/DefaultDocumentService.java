@@ -2,19 +2,18 @@ package fr.openent.lool.service.Impl;
 
 import fr.openent.lool.core.constants.Field;
 import fr.openent.lool.helper.PromiseHelper;
+import fr.openent.lool.helper.StorageGarbageCollector;
 import fr.openent.lool.service.DocumentService;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.Utils;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import org.entcore.common.mongodb.MongoDbResult;
-import org.entcore.common.storage.Storage;
 
 import java.util.Date;
 
@@ -22,13 +21,14 @@ import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 
 public class DefaultDocumentService implements DocumentService {
     private final EventBus eb;
-    private final Storage storage;
+    private final StorageGarbageCollector garbageCollector;
     private final String WORKSPACE_BUS_ADDRESS = "org.entcore.workspace";
+    private final String DIGEST_COLLECTION = "lool_content_digest";
     Logger log = LoggerFactory.getLogger(DefaultDocumentService.class);
 
-    public DefaultDocumentService(EventBus eb, Storage storage) {
+    public DefaultDocumentService(EventBus eb, StorageGarbageCollector garbageCollector) {
         this.eb = eb;
-        this.storage = storage;
+        this.garbageCollector = garbageCollector;
     }
 
     @Override
@@ -68,51 +68,67 @@ public class DefaultDocumentService implements DocumentService {
     @Override
     public void updateRevisionId(String documentId, String newFileId, Handler<Either<String, JsonObject>> handler) {
         JsonObject matcher = new JsonObject().put(Field._ID, documentId);
-        JsonObject updater = new JsonObject().put(Field.FILE, newFileId);
-        JsonObject updaterRevision = updater.put(Field.DATE, MongoDb.now());
-
-        JsonObject documentMatcher = new JsonObject().put(Field.DOCUMENTID, documentId);
+        String modified = MongoDb.formatDate(new Date());
+        JsonObject updaterDocument = new JsonObject()
+                .put(Field.FILE, newFileId)
+                .put(Field.MODIFIED, modified);
+        JsonObject updaterRevision = new JsonObject()
+                .put(Field.FILE, newFileId)
+                .put(Field.DATE, MongoDb.now());
+
+        JsonObject revisionMatcher = new JsonObject().put(Field.DOCUMENTID, documentId);
         JsonObject sort = new JsonObject().put(Field.DATE, -1);
         JsonObject projection = new JsonObject().put(Field._ID, 1).put(Field.FILE, 1);
 
         Promise<JsonObject> documentPromise = Promise.promise();
         Promise<JsonObject> revisionPromise = Promise.promise();
 
-        MongoDb.getInstance().find(Field.DOCUMENTSREVISION, documentMatcher, sort, projection, -1, 1,
-                Integer.MAX_VALUE, MongoDbResult.validResultsHandler(either -> {
-            if (either.isRight()) {
-                JsonArray documents = either.right().getValue();
-                if (documents.size() == 0) {
-                    revisionPromise.fail("No revision found");
-                    return;
-                }
-                JsonObject revisionMatcher = new JsonObject().put(Field._ID, documents.getJsonObject(0).getString(Field._ID));
-                MongoDb.getInstance().update(Field.DOCUMENTSREVISION, revisionMatcher, new JsonObject().put(Field.$SET, updaterRevision), event -> {
-                    if (Field.OK.equals(event.body().getString(Field.STATUS))) {
-                        revisionPromise.complete(event.body());
-                        storage.removeFile(documents.getJsonObject(0).getString(Field.FILE), entries -> {
-                            if (!Field.OK.equals(entries.getString(Field.STATUS))) {
-                                log.error("[LOOL@DefaultDocumentService::updateRevisionId] Failed to delete revision : " + documents.getJsonObject(0).getString(Field.FILE));
-                            }
-                        });
-                    } else {
-                        revisionPromise.fail(event.body().getString("message"));
-                    }
-                });
-            } else {
+        // Swap latest revision file and get replaced file back in a single call
+        MongoDb.getInstance().findAndModify(Field.DOCUMENTSREVISION, revisionMatcher, new JsonObject().put(Field.$SET, updaterRevision),
+                sort, projection, false, false, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (either.isLeft()) {
                 revisionPromise.fail(either.left().getValue());
+                return;
             }
-        }));
-
-        JsonObject updaterDocument = updater.put(Field.MODIFIED, MongoDb.formatDate(new Date()));
+            JsonObject revision = either.right().getValue();
+            if (revision == null || !revision.containsKey(Field._ID)) {
+                revisionPromise.fail("No revision found");
+                return;
+            }
+            String replacedFileId = revision.getString(Field.FILE);
+            if (replacedFileId == null || replacedFileId.equals(newFileId)) {
+                revisionPromise.complete(revision);
+                return;
+            }
+            // Replaced file is persisted for removal before the save is acknowledged. The revision is already swapped,
+            // a garbage write failure leaves an orphan file but does not fail the save
+            garbageCollector.remove(replacedFileId).onComplete(garbage -> revisionPromise.complete(revision));
+        });
 
         MongoDb.getInstance().update(Field.DOCUMENTS, matcher, new JsonObject().put(Field.$SET, updaterDocument), PromiseHelper.getPromiseHandler(documentPromise));
 
         Future.all(documentPromise.future(), revisionPromise.future()).onComplete(response -> {
-            Either<String, JsonObject> ok = new Either.Right<>(new JsonObject().put(Field.STATUS, Field.OK));
+            Either<String, JsonObject> ok = new Either.Right<>(new JsonObject().put(Field.STATUS, Field.OK).put(Field.MODIFIED, modified));
             Either<String, JsonObject> ko = new Either.Left<>("Failed to update revision and document");
 
             handler.handle(response.succeeded() ? ok : ko);
         });
     }
+
+    @Override
+    public void getContentDigest(String documentId, Handler<Either<String, JsonObject>> handler) {
+        JsonObject matcher = new JsonObject().put(Field._ID, documentId);
+        MongoDb.getInstance().findOne(DIGEST_COLLECTION, matcher, message -> handler.handle(Utils.validResult(message)));
+    }
+
+    @Override
+    public void saveContentDigest(String documentId, String fileId, String digest, Handler<Either<String, JsonObject>> handler) {
+        JsonObject matcher = new JsonObject().put(Field._ID, documentId);
+        JsonObject digestObject = new JsonObject()
+                .put(Field.FILE, fileId)
+                .put(Field.DIGEST, digest);
+        MongoDb.getInstance().update(DIGEST_COLLECTION, matcher, new JsonObject().put(Field.$SET, digestObject), true, false,
+                message -> handler.handle(Utils.validResult(message)));
+    }
 }
@@ -1,26 +1,146 @@
 package fr.openent.lool.service.Impl;
 
 import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.BufferCache;
+import fr.openent.lool.helper.ContentCache;
+import fr.openent.lool.helper.MetricsHelper;
 import fr.openent.lool.service.FileService;
+import fr.openent.lool.utils.Metrics;
 import fr.wseduc.webutils.Either;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.buffer.impl.BufferImpl;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 import org.entcore.common.storage.Storage;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public class DefaultFileService implements FileService {
 
     private final Storage storage;
+    private final BufferCache prefetched;
+    private final ContentCache contentCache;
+    private final Map<String, List<Handler<Buffer>>> pendingReads = new HashMap<>();
 
     public DefaultFileService(Storage storage) {
         this.storage = storage;
+        this.prefetched = null;
+        this.contentCache = null;
+    }
+
+    public DefaultFileService(Vertx vertx, Storage storage, JsonObject config) {
+        this.storage = storage;
+        JsonObject content = config.getJsonObject("content", new JsonObject());
+        this.contentCache = content.getBoolean("enabled", false) ? new ContentCache(vertx, content) : null;
+
+        JsonObject prefetch = config.getJsonObject("prefetch", new JsonObject());
+        // Content cache already keeps prefetched files
+        if (this.contentCache == null && prefetch.getBoolean("enabled", true)) {
+            long ttl = TimeUnit.SECONDS.toMillis(prefetch.getLong("ttl-seconds", 30L));
+            this.prefetched = new BufferCache(prefetch.getLong("max-size-mb", 64L) * 1024 * 1024, ttl);
+            vertx.setPeriodic(ttl, timer -> prefetched.purge());
+        } else {
+            this.prefetched = null;
+        }
     }
 
     @Override
     public void get(String fileId, Handler<Buffer> handler) {
-        storage.readFile(fileId, handler);
+        if (prefetched != null) {
+            Buffer buffer = prefetched.remove(fileId);
+            if (buffer != null) {
+                MetricsHelper.increment(Metrics.PREFETCH_HIT);
+                handler.handle(buffer);
+                return;
+            }
+        }
+        if (contentCache != null) {
+            contentCache.get(fileId, cached -> {
+                if (cached != null) {
+                    handler.handle(cached);
+                } else {
+                    read(fileId, handler);
+                }
+            });
+        } else {
+            read(fileId, handler);
+        }
+    }
+
+    @Override
+    public void prefetch(String fileId) {
+        if (fileId == null) return;
+        if (contentCache != null) {
+            MetricsHelper.increment(Metrics.PREFETCH_ISSUED);
+            get(fileId, buffer -> {
+            });
+        } else if (prefetched != null && !prefetched.contains(fileId)) {
+            MetricsHelper.increment(Metrics.PREFETCH_ISSUED);
+            read(fileId, null);
+        }
+    }
+
+    /**
+     * Read file from storage. Concurrent reads of the same file share a single storage read. When no handler is
+     * waiting for the file at the end of the read, the file is kept as a prefetched file.
+     *
+     * @param fileId  File id
+     * @param handler Function handler returning data. Null for prefetch reads
+     */
+    private void read(String fileId, Handler<Buffer> handler) {
+        synchronized (pendingReads) {
+            List<Handler<Buffer>> waiters = pendingReads.get(fileId);
+            if (waiters != null) {
+                if (handler != null) {
+                    MetricsHelper.increment(Metrics.STORAGE_READ_COALESCED);
+                    waiters.add(handler);
+                }
+                return;
+            }
+            waiters = new ArrayList<>();
+            if (handler != null) waiters.add(handler);
+            pendingReads.put(fileId, waiters);
+        }
+        storage.readFile(fileId, buffer -> {
+            List<Handler<Buffer>> waiters;
+            synchronized (pendingReads) {
+                waiters = pendingReads.remove(fileId);
+            }
+            if (buffer != null) {
+                MetricsHelper.add(Metrics.CONTENT_BYTES_STORAGE, buffer.length());
+                if (contentCache != null) {
+                    contentCache.put(fileId, buffer);
+                } else if (waiters.isEmpty() && prefetched != null) {
+                    prefetched.put(fileId, buffer);
+                }
+            }
+            waiters.forEach(waiter -> waiter.handle(buffer));
+        });
+    }
+
+    /**
+     * Keep freshly written file in content cache: co-editors will read it on their next load
+     *
+     * @param entries Storage write result
+     * @param buffer  Written file
+     */
+    private void cacheWritten(JsonObject entries, Buffer buffer) {
+        if (contentCache != null && entries.getString(Field._ID) != null) {
+            contentCache.put(entries.getString(Field._ID), buffer);
+        }
+    }
+
+    @Override
+    public void cache(String fileId, Buffer file) {
+        if (contentCache != null && fileId != null) {
+            contentCache.put(fileId, file);
+        }
     }
 
     @Override
@@ -29,6 +149,7 @@ public class DefaultFileService implements FileService {
         request.handler(responseBuffer::appendBuffer);
         request.endHandler(aVoid -> storage.writeBuffer(responseBuffer, contentType, filename, entries -> {
             if (Field.OK.equals(entries.getString(Field.STATUS))) {
+                cacheWritten(entries, responseBuffer);
                 handler.handle(new Either.Right<>(entries));
             } else {
                 handler.handle(new Either.Left<>("[DefaultFileService@add] An error occurred while writing file in the storage"));
@@ -51,10 +172,16 @@ public class DefaultFileService implements FileService {
 
     @Override
     public void add(Buffer file, String contentType, String filename, Handler<Either<String, JsonObject>> handler) {
+        add(file, contentType, filename, true, handler);
+    }
+
+    @Override
+    public void add(Buffer file, String contentType, String filename, boolean cached, Handler<Either<String, JsonObject>> handler) {
         storage.writeBuffer(file, contentType, filename, message -> {
             if (!Field.OK.equals(message.getString(Field.STATUS))) {
                 handler.handle(new Either.Left<>("[DefaultFileService@add] Failed to upload file from buffer"));
             } else {
+                if (cached) cacheWritten(message, file);
                 message.remove(Field.STATUS);
                 handler.handle(new Either.Right<>(message));
             }
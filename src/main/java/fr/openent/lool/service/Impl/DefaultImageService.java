@@ -0,0 +1,211 @@
+package fr.openent.lool.service.Impl;
+
+import fr.openent.lool.helper.BufferCache;
+import fr.openent.lool.helper.MetricsHelper;
+import fr.openent.lool.helper.WorkerPool;
+import fr.openent.lool.service.FileService;
+import fr.openent.lool.service.ImageService;
+import fr.openent.lool.utils.Metrics;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+public class DefaultImageService implements ImageService {
+    private static final String JPEG = "image/jpeg";
+    private static final String PNG = "image/png";
+
+    private final Logger log = LoggerFactory.getLogger(DefaultImageService.class);
+    private final WorkerPool workerPool;
+    private final FileService fileService;
+    private final boolean enabled;
+    private final int maxDimension;
+    private final long maxPixels;
+    private final float quality;
+    private final BufferCache cache;
+
+    public DefaultImageService(WorkerPool workerPool, FileService fileService, JsonObject config) {
+        this.workerPool = workerPool;
+        this.fileService = fileService;
+        this.enabled = config.getBoolean("enabled", false);
+        this.maxDimension = config.getInteger("max-dimension", 1920);
+        this.maxPixels = config.getLong("max-pixels", 40000000L);
+        this.quality = config.getFloat("jpeg-quality", 0.85f);
+        this.cache = new BufferCache(config.getLong("cache-size-mb", 64L) * 1024 * 1024);
+    }
+
+    @Override
+    public void get(String fileId, String contentType, Handler<Buffer> handler) {
+        if (!enabled || !(JPEG.equals(contentType) || PNG.equals(contentType))) {
+            fileService.get(fileId, handler);
+            return;
+        }
+
+        Buffer variant = cache.get(fileId);
+        if (variant != null) {
+            MetricsHelper.increment(Metrics.IMAGE_CACHE_HIT);
+            handler.handle(variant);
+            return;
+        }
+
+        MetricsHelper.increment(Metrics.IMAGE_CACHE_MISS);
+        fileService.get(fileId, original -> {
+            if (original == null) {
+                handler.handle(null);
+                return;
+            }
+            workerPool.execute("image", () -> normalize(original, contentType)).onComplete(result -> {
+                if (result.failed()) {
+                    log.error("[DefaultImageService@get] Failed to normalize image " + fileId, result.cause());
+                    handler.handle(original);
+                    return;
+                }
+                Buffer normalized = result.result();
+                MetricsHelper.add(Metrics.IMAGE_BYTES_SAVED, (long) original.length() - normalized.length());
+                cache.put(fileId, normalized);
+                handler.handle(normalized);
+            });
+        });
+    }
+
+    /**
+     * Downscale image to configured max dimension and recompress it. Original image is returned when the result is
+     * not smaller, when the image exceeds the configured pixel count, or when it is an EXIF rotated JPEG: pixels
+     * would be re-encoded without their orientation. This method is blocking and must be executed in a worker.
+     *
+     * @param original    original image
+     * @param contentType image content type
+     * @return normalized image
+     */
+    private Buffer normalize(Buffer original, String contentType) {
+        byte[] bytes = original.getBytes();
+        boolean isJpeg = JPEG.equals(contentType);
+        if (isJpeg && exifOrientation(bytes) != 1) return original;
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return original;
+            ImageReader reader = readers.next();
+            BufferedImage image;
+            try {
+                reader.setInput(input, true, true);
+                // Dimensions are read from the header, oversized images are never decoded
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    MetricsHelper.increment(Metrics.IMAGE_OVERSIZED);
+                    return original;
+                }
+                if (Math.max(width, height) <= maxDimension && !isJpeg) return original;
+                image = reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+
+            int width = image.getWidth();
+            int height = image.getHeight();
+
+            double scale = Math.min(1d, (double) maxDimension / Math.max(width, height));
+            int targetWidth = Math.max(1, (int) Math.round(width * scale));
+            int targetHeight = Math.max(1, (int) Math.round(height * scale));
+            BufferedImage target = new BufferedImage(targetWidth, targetHeight, isJpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = target.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, targetWidth, targetHeight, null);
+            graphics.dispose();
+
+            byte[] normalized = isJpeg ? writeJpeg(target) : writePng(target);
+            return normalized.length < original.length() ? Buffer.buffer(normalized) : original;
+        } catch (IOException e) {
+            log.error("[DefaultImageService@normalize] Failed to read image", e);
+            return original;
+        }
+    }
+
+    /**
+     * Read EXIF orientation of a JPEG image: the Orientation tag of the first IFD of the APP1 "Exif" segment.
+     *
+     * @param jpeg JPEG image
+     * @return EXIF orientation, 1 (no transformation) when missing or unreadable
+     */
+    static int exifOrientation(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) return 1;
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            // Metadata segments are all before the start of scan
+            if (marker == 0xDA || marker == 0xD9) return 1;
+            int length = readShort(jpeg, offset + 2, false);
+            int segment = offset + 4;
+            if (marker == 0xE1 && segment + 14 <= jpeg.length && segment + length - 2 <= jpeg.length
+                    && new String(jpeg, segment, 4, StandardCharsets.US_ASCII).equals("Exif")) {
+                int tiff = segment + 6;
+                boolean little = jpeg[tiff] == 'I';
+                int ifd = tiff + readInt(jpeg, tiff + 4, little);
+                int end = segment + length - 2;
+                if (ifd < tiff || ifd + 2 > end) return 1;
+                int entries = readShort(jpeg, ifd, little);
+                for (int i = 0; i < entries; i++) {
+                    int entry = ifd + 2 + i * 12;
+                    if (entry + 12 > end) return 1;
+                    if (readShort(jpeg, entry, little) == 0x0112) {
+                        return readShort(jpeg, entry + 8, little);
+                    }
+                }
+                return 1;
+            }
+            offset = segment + length - 2;
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] bytes, int offset, boolean little) {
+        int b0 = bytes[offset] & 0xFF;
+        int b1 = bytes[offset + 1] & 0xFF;
+        return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] bytes, int offset, boolean little) {
+        return little
+                ? (readShort(bytes, offset + 2, true) << 16) | readShort(bytes, offset, true)
+                : (readShort(bytes, offset, false) << 16) | readShort(bytes, offset + 2, false);
+    }
+
+    private byte[] writeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] writePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+}
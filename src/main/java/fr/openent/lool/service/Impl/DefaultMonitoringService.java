@@ -2,10 +2,13 @@ package fr.openent.lool.service.Impl;
 
 import fr.openent.lool.core.constants.Field;
 import fr.openent.lool.service.MonitoringService;
+import fr.openent.lool.utils.Actions;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.Utils;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -13,6 +16,8 @@ import io.vertx.core.logging.LoggerFactory;
 
 public class DefaultMonitoringService implements MonitoringService {
 
+    private static final String COUNT = "count";
+
     private Logger log = LoggerFactory.getLogger(DefaultMonitoringService.class);
 
     @Override
@@ -61,6 +66,40 @@ public class DefaultMonitoringService implements MonitoringService {
         MongoDb.getInstance().count("lool_events", new JsonObject().put("event", event), message -> handler.handle(Utils.validResult(message)));
     }
 
+    @Override
+    public void getSnapshot(Handler<Either<String, JsonObject>> handler) {
+        // Stamped before the queries run: changes made from this date may be missing from the snapshot
+        long computed = System.currentTimeMillis();
+        Promise<JsonArray> documents = Promise.promise();
+        Promise<JsonObject> users = Promise.promise();
+        Promise<JsonObject> access = Promise.promise();
+        Promise<JsonObject> newVersion = Promise.promise();
+        Promise<JsonArray> extensions = Promise.promise();
+        getDocuments(either -> complete(documents, either));
+        countUsers(either -> complete(users, either));
+        countEvent(Actions.ACCESS.name(), either -> complete(access, either));
+        countEvent(Actions.NEW_VERSION.name(), either -> complete(newVersion, either));
+        getExtensions(either -> complete(extensions, either));
+        Future.all(documents.future(), users.future(), access.future(), newVersion.future(), extensions.future())
+                .onFailure(err -> handler.handle(new Either.Left<>(err.getMessage())))
+                .onSuccess(result -> handler.handle(new Either.Right<>(new JsonObject()
+                        .put("documents", documents.future().result())
+                        .put("users", users.future().result().getLong(COUNT, 0L))
+                        .put("events", new JsonObject()
+                                .put(Actions.ACCESS.name(), access.future().result().getLong(COUNT, 0L))
+                                .put(Actions.NEW_VERSION.name(), newVersion.future().result().getLong(COUNT, 0L)))
+                        .put("extensions", extensions.future().result())
+                        .put("computed", computed))));
+    }
+
+    private static <T> void complete(Promise<T> promise, Either<String, T> either) {
+        if (either.isRight()) {
+            promise.complete(either.right().getValue());
+        } else {
+            promise.fail(either.left().getValue());
+        }
+    }
+
     @Override
     public void getExtensions(Handler<Either<String, JsonArray>> handler) {
         //TODO @Sled. Calculer en %. Max 5 retours.
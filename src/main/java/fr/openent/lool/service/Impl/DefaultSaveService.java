@@ -0,0 +1,192 @@
+package fr.openent.lool.service.Impl;
+
+import fr.openent.lool.bean.PendingSave;
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.MetricsHelper;
+import fr.openent.lool.helper.RevisionCompactor;
+import fr.openent.lool.service.DocumentService;
+import fr.openent.lool.service.FileService;
+import fr.openent.lool.service.SaveService;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class DefaultSaveService implements SaveService {
+    private final Logger log = LoggerFactory.getLogger(DefaultSaveService.class);
+    private final DocumentService documentService;
+    private final FileService fileService;
+    private final RevisionCompactor revisionCompactor;
+    // Waiting saves by document. A document has an entry as long as one of its saves is running
+    private final Map<String, Deque<PendingSave>> queues = new HashMap<>();
+
+    public DefaultSaveService(DocumentService documentService, FileService fileService, RevisionCompactor revisionCompactor) {
+        this.documentService = documentService;
+        this.fileService = fileService;
+        this.revisionCompactor = revisionCompactor;
+    }
+
+    @Override
+    public void save(PendingSave save, Handler<Either<String, JsonObject>> handler) {
+        save.onComplete(handler);
+        boolean start;
+        List<PendingSave> superseded = new ArrayList<>();
+        synchronized (queues) {
+            Deque<PendingSave> queue = queues.get(save.getDocumentId());
+            start = queue == null;
+            if (start) {
+                queue = new ArrayDeque<>();
+                queues.put(save.getDocumentId(), queue);
+            }
+            Iterator<PendingSave> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                PendingSave waiting = iterator.next();
+                if (waiting.isAutoSave()) {
+                    superseded.add(waiting);
+                    iterator.remove();
+                }
+            }
+            queue.add(save);
+        }
+
+        superseded.forEach(save::supersede);
+        MetricsHelper.add(Metrics.SAVE_SUPERSEDED, superseded.size());
+        if (start) next(save.getDocumentId());
+    }
+
+    /**
+     * Execute next waiting save of given document
+     *
+     * @param documentId Document identifier
+     */
+    private void next(String documentId) {
+        PendingSave save;
+        synchronized (queues) {
+            Deque<PendingSave> queue = queues.get(documentId);
+            save = queue.poll();
+            if (save == null) {
+                queues.remove(documentId);
+                return;
+            }
+        }
+        execute(save, result -> {
+            save.complete(result);
+            next(documentId);
+        });
+    }
+
+    /**
+     * Write save content in storage then update document. Storage write and document update are skipped when the
+     * content is identical to the current document file.
+     *
+     * @param save    Save to execute
+     * @param handler Function handler returning data
+     */
+    private void execute(PendingSave save, Handler<Either<String, JsonObject>> handler) {
+        if (save.getDigest() == null) {
+            write(save, handler);
+            return;
+        }
+
+        Promise<JsonObject> documentPromise = Promise.promise();
+        Promise<JsonObject> digestPromise = Promise.promise();
+        documentService.get(save.getDocumentId(), either -> complete(documentPromise, either));
+        documentService.getContentDigest(save.getDocumentId(), either -> complete(digestPromise, either));
+        Future.all(documentPromise.future(), digestPromise.future()).onComplete(result -> {
+            if (result.succeeded()) {
+                JsonObject document = documentPromise.future().result();
+                JsonObject digest = digestPromise.future().result();
+                if (digest != null && save.getDigest().equals(digest.getString(Field.DIGEST))
+                        && document.getString(Field.FILE, "").equals(digest.getString(Field.FILE))) {
+                    MetricsHelper.increment(Metrics.SAVE_DEDUPLICATED);
+                    MetricsHelper.add(Metrics.SAVE_DEDUPLICATED_BYTES, save.getContent().length());
+                    handler.handle(new Either.Right<>(new JsonObject()
+                            .put(Field.STATUS, Field.OK)
+                            .put(Field.MODIFIED, document.getString(Field.MODIFIED))));
+                    return;
+                }
+            }
+            write(save, handler);
+        });
+    }
+
+    private void write(PendingSave save, Handler<Either<String, JsonObject>> handler) {
+        MetricsHelper.increment(Metrics.SAVE_EXECUTED);
+        fileService.add(save.getContent(), save.getContentType(), save.getFilename(), false, storageEvent -> {
+            if (storageEvent.isLeft()) {
+                log.error(storageEvent.left().getValue());
+                handler.handle(new Either.Left<>(storageEvent.left().getValue()));
+                return;
+            }
+            JsonObject storageBody = storageEvent.right().getValue();
+            String fileId = storageBody.getString(Field._ID);
+            // Co-editors read the latest content on their next load: a body already superseded by a waiting save is
+            // not worth caching
+            if (!superseded(save)) fileService.cache(fileId, save.getContent());
+            Handler<Either<String, JsonObject>> updateHandler = updateEvent -> {
+                if (updateEvent.isRight() && save.getDigest() != null) {
+                    documentService.saveContentDigest(save.getDocumentId(), fileId, save.getDigest(), digestEvent -> {
+                        if (digestEvent.isLeft()) {
+                            log.error("[DefaultSaveService@write] Failed to record content digest of document " + save.getDocumentId());
+                        }
+                    });
+                }
+                handler.handle(updateEvent);
+            };
+            if (save.isAutoSave()) {
+                documentService.updateRevisionId(save.getDocumentId(), fileId, updateHandler);
+            } else {
+                documentService.update(save.getDocumentId(), fileId, storageBody.getJsonObject(Field.METADATA), updateEvent -> {
+                    if (updateEvent.isLeft()) {
+                        updateHandler.handle(updateEvent);
+                        return;
+                    }
+                    revisionCompactor.mark(save.getDocumentId());
+                    JsonObject updated = updateEvent.right().getValue() != null ? updateEvent.right().getValue() : new JsonObject();
+                    if (updated.containsKey(Field.MODIFIED)) {
+                        updateHandler.handle(new Either.Right<>(updated));
+                        return;
+                    }
+                    // Workspace does not return the new version date: read it back so that the save reports it
+                    documentService.get(save.getDocumentId(), documentEvent -> {
+                        if (documentEvent.isRight() && documentEvent.right().getValue() != null) {
+                            updated.put(Field.MODIFIED, documentEvent.right().getValue().getString(Field.MODIFIED));
+                        }
+                        updateHandler.handle(new Either.Right<>(updated));
+                    });
+                });
+            }
+        });
+    }
+
+    /**
+     * @return true if a newer save of given save document is waiting
+     */
+    private boolean superseded(PendingSave save) {
+        synchronized (queues) {
+            Deque<PendingSave> queue = queues.get(save.getDocumentId());
+            if (queue != null && !queue.isEmpty()) return true;
+        }
+        return save.hasNewer();
+    }
+
+    private static void complete(Promise<JsonObject> promise, Either<String, JsonObject> either) {
+        if (either.isRight()) {
+            promise.complete(either.right().getValue());
+        } else {
+            promise.fail(either.left().getValue());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package fr.openent.lool.service.Impl;
+
+import fr.openent.lool.bean.Template;
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.WorkerPool;
+import fr.openent.lool.service.TemplateService;
+import fr.wseduc.webutils.data.FileResolver;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DefaultTemplateService implements TemplateService {
+    private static final String TEMPLATES_PATH = "public/lool-templates/";
+
+    private final Logger log = LoggerFactory.getLogger(DefaultTemplateService.class);
+    private final WorkerPool workerPool;
+    // Immutable table, replaced as a whole on refresh
+    private volatile Map<String, Template> templates = Collections.emptyMap();
+
+    public DefaultTemplateService(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    @Override
+    public Template get(String type) {
+        return templates.get(type);
+    }
+
+    @Override
+    public Collection<String> types() {
+        return templates.keySet();
+    }
+
+    @Override
+    public void refresh(Collection<String> types, Handler<Boolean> handler) {
+        workerPool.execute("templates", () -> {
+            String path = FileResolver.absolutePath(TEMPLATES_PATH);
+            Map<String, Template> loaded = new HashMap<>();
+            for (String type : types) {
+                Path file = Paths.get(path, "template." + type);
+                try {
+                    String contentType = getContentType(type, file);
+                    if (contentType == null) {
+                        log.error("[DefaultTemplateService@refresh] Unknown content type of template." + type);
+                        continue;
+                    }
+                    loaded.put(type, new Template(type, contentType, Buffer.buffer(Files.readAllBytes(file))));
+                } catch (IOException e) {
+                    log.error("[DefaultTemplateService@refresh] Failed to read template : " + file, e);
+                }
+            }
+            return loaded;
+        }).onComplete(result -> {
+            if (result.failed()) {
+                log.error("[DefaultTemplateService@refresh] Failed to load templates", result.cause());
+                handler.handle(false);
+                return;
+            }
+            templates = Collections.unmodifiableMap(result.result());
+            handler.handle(result.result().size() == types.size());
+        });
+    }
+
+    /**
+     * Get template content type. This method is blocking and must be executed in a worker.
+     *
+     * @param type Template type
+     * @param file Template file
+     * @return Template content type, null when unknown
+     */
+    private String getContentType(String type, Path file) throws IOException {
+        String contentType = Files.probeContentType(file);
+        if (contentType != null) return contentType;
+        switch (type) {
+            case Field.PPTX:
+            case Field.ODP:
+                return "application/vnd.oasis.opendocument.presentation";
+            case Field.DOCX:
+            case Field.ODT:
+                return "application/vnd.oasis.opendocument.text";
+            case Field.XLSX:
+            case Field.ODS:
+                return "application/vnd.oasis.opendocument.spreadsheet";
+            case Field.ODG:
+                return "application/vnd.oasis.opendocument.graphics";
+            default:
+                return null;
+        }
+    }
+}
@@ -51,6 +51,24 @@ public class DefaultTokenService implements TokenService {
         MongoDb.getInstance().delete(TOKEN_COLLECTION, matcher, message -> handler.handle(Utils.validResult(message)));
     }
 
+    @Override
+    public void consume(String id, String userId, String documentId, Handler<Either<String, JsonObject>> handler) {
+        JsonObject matcher = new JsonObject()
+                .put(Field._ID, id)
+                .put("document", documentId)
+                .put("user", userId);
+
+        MongoDb.getInstance().findAndModify(TOKEN_COLLECTION, matcher, null, null, null, true, false, false, message -> {
+            Either<String, JsonObject> either = Utils.validResult(message);
+            if (either.isLeft()) {
+                log.error("[DefaultTokenService@consume] Failed to consume document token " + id);
+                handler.handle(either);
+            } else {
+                handler.handle(new Either.Right<>(either.right().getValue() == null ? new JsonObject() : either.right().getValue()));
+            }
+        });
+    }
+
     @Override
     public void clean(Handler<Boolean> handler) {
         MongoDb.getInstance().delete(TOKEN_COLLECTION, new JsonObject(), message -> handler.handle(Utils.validResult(message).isRight()));
@@ -0,0 +1,361 @@
+package fr.openent.lool.service.Impl;
+
+import fr.openent.lool.bean.PendingSave;
+import fr.openent.lool.core.constants.Field;
+import fr.openent.lool.helper.MetricsHelper;
+import fr.openent.lool.service.SaveService;
+import fr.openent.lool.utils.Metrics;
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Write-ahead save spool. Saved contents are synced to a local directory and acknowledged right away, then drained to
+ * the underlying save service in the background. A document has at most one drained save at a time so that its saves
+ * are applied in arrival order. Spooled saves that were not drained are recovered on startup.
+ * Exit saves and saves of a document that still has spooled saves are acknowledged once drained, so that a document
+ * reopened after its editors leave is read from up to date storage. Failed drains of acknowledged saves are retried
+ * with a capped backoff, then moved to a dead letter directory so that later saves of the document are drained.
+ * The spool directory is locked: a single process owns it.
+ */
+public class SpooledSaveService implements SaveService {
+    private static final String CONTENT_EXTENSION = ".bin";
+    private static final String DESCRIPTOR_EXTENSION = ".json";
+    private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+    private static final String LOCK_FILE = ".lock";
+
+    private final Logger log = LoggerFactory.getLogger(SpooledSaveService.class);
+    private final Vertx vertx;
+    private final SaveService saveService;
+    private final Path directory;
+    private final Path deadLetter;
+    private final int maxConcurrency;
+    private final int maxAttempts;
+    private final long maxBackoff;
+    // Single worker: spool writes are synced one after the other, in arrival order
+    private final WorkerExecutor writer;
+    private final LinkedList<SpooledSave> queue = new LinkedList<>();
+    private final Set<String> draining = new HashSet<>();
+    private long sequence = System.currentTimeMillis() * 1000;
+    private boolean ready = false;
+    // Held for the process lifetime, released by the operating system on exit
+    private FileLock lock;
+
+    public SpooledSaveService(Vertx vertx, SaveService saveService, JsonObject config) {
+        this.vertx = vertx;
+        this.saveService = saveService;
+        this.directory = Paths.get(config.getString("path", "/tmp/lool-save-spool"));
+        this.deadLetter = directory.resolve(DEAD_LETTER_DIRECTORY);
+        this.maxConcurrency = config.getInteger("max-concurrency", 4);
+        this.maxAttempts = config.getInteger("max-attempts", 10);
+        this.maxBackoff = config.getLong("max-backoff-ms", 300000L);
+        this.writer = vertx.createSharedWorkerExecutor("lool-save-spool", 1);
+        vertx.setPeriodic(config.getLong("retry-interval-ms", 5000L), timer -> drain());
+        MetricsHelper.gauge("save.spool.pending", this::pending);
+        MetricsHelper.gauge("save.spool.failing", this::failing);
+        recover();
+    }
+
+    /**
+     * Spool save content then answer requester. Save is executed directly when the spool cannot be written.
+     * Exit saves and saves of a document with spooled saves are answered once drained.
+     *
+     * @param save    Save to execute
+     * @param handler Function handler returning data
+     */
+    @Override
+    public void save(PendingSave save, Handler<Either<String, JsonObject>> handler) {
+        long id;
+        boolean synchronous;
+        synchronized (queue) {
+            if (!ready) {
+                saveService.save(save, handler);
+                return;
+            }
+            id = ++sequence;
+            synchronous = save.isExitSave() || hasPending(save.getDocumentId());
+        }
+        SpooledSave spooled = new SpooledSave(id, save.getDocumentId(), save.getContentType(), save.getFilename(), save.isAutoSave(), save.getDigest());
+        writer.executeBlocking(() -> {
+            write(path(id, CONTENT_EXTENSION), save.getContent().getBytes());
+            // Descriptor is written last: a save is spooled once its descriptor exists
+            write(path(id, DESCRIPTOR_EXTENSION), spooled.toJSON().encode().getBytes(StandardCharsets.UTF_8));
+            return null;
+        }, true).onComplete(result -> {
+            if (result.failed()) {
+                log.error("[SpooledSaveService@save] Failed to spool save of document " + save.getDocumentId(), result.cause());
+                MetricsHelper.increment(Metrics.SAVE_SPOOL_FAILED);
+                delete(spooled);
+                saveService.save(save, handler);
+                return;
+            }
+            MetricsHelper.increment(Metrics.SAVE_SPOOLED);
+            synchronized (queue) {
+                if (synchronous) spooled.requester = handler;
+                queue.add(spooled);
+            }
+            if (!synchronous) {
+                // Saved version is dated from its spooling: the document modified date is set once it is drained
+                handler.handle(new Either.Right<>(new JsonObject().put(Field.STATUS, Field.OK).put(Field.MODIFIED, MongoDb.formatDate(new Date()))));
+            }
+            drain();
+        });
+    }
+
+    private boolean hasPending(String documentId) {
+        if (draining.contains(documentId)) return true;
+        for (SpooledSave spooled : queue) {
+            if (spooled.documentId.equals(documentId)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drain spooled saves to the underlying save service, up to max concurrency. A save is not drained while another
+     * save of the same document is draining.
+     */
+    private void drain() {
+        List<SpooledSave> batch = new ArrayList<>();
+        synchronized (queue) {
+            Set<String> skipped = new HashSet<>();
+            Iterator<SpooledSave> iterator = queue.iterator();
+            while (iterator.hasNext() && draining.size() < maxConcurrency) {
+                SpooledSave spooled = iterator.next();
+                if (draining.contains(spooled.documentId) || !skipped.add(spooled.documentId)) continue;
+                if (spooled.retryAt > System.currentTimeMillis()) continue;
+                iterator.remove();
+                draining.add(spooled.documentId);
+                batch.add(spooled);
+            }
+        }
+        batch.forEach(this::drain);
+    }
+
+    /**
+     * @return true if a save of given document is waiting in the spool
+     */
+    private boolean queued(String documentId) {
+        synchronized (queue) {
+            return queue.stream().anyMatch(waiting -> waiting.documentId.equals(documentId));
+        }
+    }
+
+    private void drain(SpooledSave spooled) {
+        vertx.fileSystem().readFile(path(spooled.id, CONTENT_EXTENSION).toString(), read -> {
+            if (read.failed()) {
+                log.error("[SpooledSaveService@drain] Failed to read spooled content " + spooled.id + " of document " + spooled.documentId, read.cause());
+                done(spooled, new Either.Left<>(read.cause().getMessage()));
+                return;
+            }
+            PendingSave save = new PendingSave(spooled.documentId, spooled.contentType, spooled.filename, read.result(), spooled.autoSave, spooled.digest)
+                    .newer(() -> queued(spooled.documentId));
+            saveService.save(save, either -> {
+                if (either.isLeft()) {
+                    log.error("[SpooledSaveService@drain] Failed to drain spooled save " + spooled.id + " of document " + spooled.documentId + " : " + either.left().getValue());
+                }
+                done(spooled, either);
+            });
+        });
+    }
+
+    /**
+     * End spooled save drain. A failed save that was acknowledged is put back at the head of the queue and retried
+     * with a capped backoff, then moved to the dead letter directory after max attempts. A failed save whose requester
+     * is waiting is not retried: the requester is told it failed and sends the content again.
+     *
+     * @param spooled Drained save
+     * @param result  Drain result
+     */
+    private void done(SpooledSave spooled, Either<String, JsonObject> result) {
+        boolean succeeded = result.isRight();
+        Handler<Either<String, JsonObject>> requester;
+        boolean retried = false;
+        synchronized (queue) {
+            draining.remove(spooled.documentId);
+            requester = spooled.requester;
+            spooled.requester = null;
+            if (!succeeded && requester == null && ++spooled.attempts < maxAttempts) {
+                spooled.retryAt = System.currentTimeMillis() + Math.min(maxBackoff, 1000L << Math.min(spooled.attempts, 20));
+                queue.addFirst(spooled);
+                retried = true;
+            }
+        }
+        if (requester != null) {
+            requester.handle(result);
+        }
+        if (succeeded) {
+            MetricsHelper.increment(Metrics.SAVE_SPOOL_DRAINED);
+            delete(spooled);
+        } else if (requester != null) {
+            delete(spooled);
+        } else if (!retried) {
+            deadLetter(spooled);
+        }
+        drain();
+    }
+
+    /**
+     * Lock spool directory, then load spooled saves left by a previous run. Contents without descriptor were not
+     * acknowledged and are deleted. Saves are not spooled when another process owns the directory.
+     */
+    private void recover() {
+        writer.executeBlocking(() -> {
+            Files.createDirectories(deadLetter);
+            FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock acquired = channel.tryLock();
+            if (acquired == null) {
+                channel.close();
+                throw new IOException("Save spool " + directory + " is locked by another process");
+            }
+            lock = acquired;
+            List<SpooledSave> recovered = new ArrayList<>();
+            List<Path> orphans = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(DESCRIPTOR_EXTENSION)) {
+                        recovered.add(new SpooledSave(new JsonObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8))));
+                    } else if (name.endsWith(CONTENT_EXTENSION)
+                            && !Files.exists(directory.resolve(name.replace(CONTENT_EXTENSION, DESCRIPTOR_EXTENSION)))) {
+                        orphans.add(file);
+                    }
+                }
+            }
+            for (Path orphan : orphans) Files.deleteIfExists(orphan);
+            recovered.sort((a, b) -> Long.compare(a.id, b.id));
+            return recovered;
+        }, true).onComplete(result -> {
+            if (result.failed()) {
+                log.error("[SpooledSaveService@recover] Failed to recover save spool " + directory + ", saves are not spooled", result.cause());
+                return;
+            }
+            synchronized (queue) {
+                for (SpooledSave spooled : result.result()) {
+                    sequence = Math.max(sequence, spooled.id);
+                    queue.add(spooled);
+                }
+                ready = true;
+            }
+            if (!result.result().isEmpty()) {
+                log.info("[SpooledSaveService@recover] Recovered " + result.result().size() + " spooled saves");
+            }
+            drain();
+        });
+    }
+
+    private Path path(long id, String extension) {
+        return directory.resolve(String.format("%020d", id) + extension);
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+    }
+
+    private void delete(SpooledSave spooled) {
+        writer.executeBlocking(() -> {
+            Files.deleteIfExists(path(spooled.id, DESCRIPTOR_EXTENSION));
+            Files.deleteIfExists(path(spooled.id, CONTENT_EXTENSION));
+            return null;
+        }, true).onComplete(result -> {
+            if (result.failed()) {
+                log.error("[SpooledSaveService@delete] Failed to delete spooled save " + spooled.id, result.cause());
+            }
+        });
+    }
+
+    /**
+     * Move spooled save to the dead letter directory. It is kept for an operator to replay, and no longer blocks the
+     * saves of its document.
+     */
+    private void deadLetter(SpooledSave spooled) {
+        MetricsHelper.increment(Metrics.SAVE_SPOOL_DEAD_LETTER);
+        log.error("[SpooledSaveService@deadLetter] Spooled save " + spooled.id + " of document " + spooled.documentId + " failed " + spooled.attempts + " times, moved to " + deadLetter);
+        writer.executeBlocking(() -> {
+            // Content is moved first: a descriptor left in the spool is replayed on restart
+            Files.move(path(spooled.id, CONTENT_EXTENSION), deadLetter.resolve(path(spooled.id, CONTENT_EXTENSION).getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(path(spooled.id, DESCRIPTOR_EXTENSION), deadLetter.resolve(path(spooled.id, DESCRIPTOR_EXTENSION).getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        }, true).onComplete(result -> {
+            if (result.failed()) {
+                log.error("[SpooledSaveService@deadLetter] Failed to move spooled save " + spooled.id + " to dead letter directory", result.cause());
+            }
+        });
+    }
+
+    private int failing() {
+        synchronized (queue) {
+            return (int) queue.stream().filter(spooled -> spooled.attempts > 0).count();
+        }
+    }
+
+    private int pending() {
+        synchronized (queue) {
+            return queue.size() + draining.size();
+        }
+    }
+
+    private static class SpooledSave {
+        private final long id;
+        private final String documentId;
+        private final String contentType;
+        private final String filename;
+        private final boolean autoSave;
+        private final String digest;
+        private int attempts = 0;
+        private long retryAt = 0L;
+        // Requester answered once the save is drained, not persisted: after a restart the save was already answered
+        private Handler<Either<String, JsonObject>> requester;
+
+        SpooledSave(long id, String documentId, String contentType, String filename, boolean autoSave, String digest) {
+            this.id = id;
+            this.documentId = documentId;
+            this.contentType = contentType;
+            this.filename = filename;
+            this.autoSave = autoSave;
+            this.digest = digest;
+        }
+
+        SpooledSave(JsonObject descriptor) {
+            this(descriptor.getLong(Field.ID), descriptor.getString(Field.DOCUMENTID), descriptor.getString("contentType"),
+                    descriptor.getString(Field.NAME), descriptor.getBoolean("autoSave", false), descriptor.getString(Field.DIGEST));
+        }
+
+        JsonObject toJSON() {
+            return new JsonObject()
+                    .put(Field.ID, id)
+                    .put(Field.DOCUMENTID, documentId)
+                    .put("contentType", contentType)
+                    .put(Field.NAME, filename)
+                    .put("autoSave", autoSave)
+                    .put(Field.DIGEST, digest);
+        }
+    }
+}
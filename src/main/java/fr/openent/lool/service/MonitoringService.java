@@ -35,4 +35,12 @@ public interface MonitoringService {
      * @param handler Function handler returning data
      */
     void getExtensions(Handler<Either<String, JsonArray>> handler);
+
+    /**
+     * Get every dashboard figure at once: opened documents, connected users, access and new version counts and
+     * extensions
+     *
+     * @param handler Function handler returning data
+     */
+    void getSnapshot(Handler<Either<String, JsonObject>> handler);
 }
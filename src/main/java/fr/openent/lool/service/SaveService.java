@@ -0,0 +1,18 @@
+package fr.openent.lool.service;
+
+import fr.openent.lool.bean.PendingSave;
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+public interface SaveService {
+
+    /**
+     * Save document content. Saves of a document are executed one at a time, in arrival order. A queued auto save that
+     * has not started yet is superseded by a newer save, its requester is answered with the newer save result.
+     *
+     * @param save    Save to execute
+     * @param handler Function handler returning data
+     */
+    void save(PendingSave save, Handler<Either<String, JsonObject>> handler);
+}
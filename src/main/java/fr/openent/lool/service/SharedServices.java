@@ -0,0 +1,151 @@
+package fr.openent.lool.service;
+
+import fr.openent.lool.helper.BackendState;
+import fr.openent.lool.helper.RevisionCompactor;
+import fr.openent.lool.helper.SingleFlightCache;
+import fr.openent.lool.helper.StorageGarbageCollector;
+import fr.openent.lool.helper.TemplatePool;
+import fr.openent.lool.helper.WorkerPool;
+import fr.openent.lool.service.Impl.DefaultDocumentService;
+import fr.openent.lool.service.Impl.DefaultFileService;
+import fr.openent.lool.service.Impl.DefaultImageService;
+import fr.openent.lool.service.Impl.DefaultMonitoringService;
+import fr.openent.lool.service.Impl.DefaultSaveService;
+import fr.openent.lool.service.Impl.DefaultTemplateService;
+import fr.openent.lool.service.Impl.SpooledSaveService;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.storage.Storage;
+import org.entcore.common.storage.StorageFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Services shared by every Lool verticle instance of the JVM. They hold JVM wide state (caches, per document save
+ * queues, background jobs), so they are created once, by the first started instance. This instance is the leader:
+ * it also runs the periodic maintenance tasks.
+ */
+public final class SharedServices {
+    private static SharedServices instance;
+    private static Object leader;
+
+    private final WorkerPool workerPool;
+    private final Storage storage;
+    private final DocumentService documentService;
+    private final FileService fileService;
+    private final ImageService imageService;
+    private final TemplateService templateService;
+    private final TemplatePool templatePool;
+    private final SaveService saveService;
+    private final MonitoringService monitoringService;
+    private final SingleFlightCache<JsonObject> monitoringSnapshot;
+    private final Map<String, BackendState> backendStates = new ConcurrentHashMap<>();
+
+    private SharedServices(Vertx vertx, JsonObject config) {
+        this.workerPool = new WorkerPool(vertx, config.getJsonObject("worker-pool", new JsonObject()));
+        this.storage = new StorageFactory(vertx, config).getStorage();
+        StorageGarbageCollector garbageCollector = new StorageGarbageCollector(vertx, storage, config.getJsonObject("storage-gc", new JsonObject()));
+        this.documentService = new DefaultDocumentService(vertx.eventBus(), garbageCollector);
+        this.fileService = new DefaultFileService(vertx, storage, config.getJsonObject("file-cache", new JsonObject()));
+        this.imageService = new DefaultImageService(workerPool, fileService, config.getJsonObject("image-normalization", new JsonObject()));
+        this.templateService = new DefaultTemplateService(workerPool);
+        this.templatePool = new TemplatePool(vertx, fileService, templateService, garbageCollector, config.getJsonObject("template-pool", new JsonObject()));
+        RevisionCompactor revisionCompactor = new RevisionCompactor(vertx, garbageCollector, config.getJsonObject("revision-retention", new JsonObject()));
+        SaveService defaultSaveService = new DefaultSaveService(documentService, fileService, revisionCompactor);
+        JsonObject saveSpoolConfig = config.getJsonObject("save-spool", new JsonObject());
+        this.saveService = saveSpoolConfig.getBoolean("enabled", false) ? new SpooledSaveService(vertx, defaultSaveService, saveSpoolConfig) : defaultSaveService;
+        this.monitoringService = new DefaultMonitoringService();
+        long snapshotInterval = TimeUnit.SECONDS.toMillis(config.getJsonObject("monitoring", new JsonObject()).getLong("snapshot-interval-seconds", 10L));
+        this.monitoringSnapshot = new SingleFlightCache<>(snapshotInterval, () -> {
+            Promise<JsonObject> promise = Promise.promise();
+            monitoringService.getSnapshot(either -> {
+                if (either.isRight()) {
+                    promise.complete(either.right().getValue());
+                } else {
+                    promise.fail(either.left().getValue());
+                }
+            });
+            return promise.future();
+        });
+    }
+
+    /**
+     * Get shared services. Services are created on first call
+     *
+     * @param vertx  Vertx instance
+     * @param config Module configuration
+     * @return Shared services
+     */
+    public static synchronized SharedServices get(Vertx vertx, JsonObject config) {
+        if (instance == null) {
+            instance = new SharedServices(vertx, config);
+        }
+        return instance;
+    }
+
+    /**
+     * Elect the leader instance. The first candidate is elected, later candidates are not.
+     *
+     * @param candidate Verticle instance
+     * @return true if given candidate is the leader
+     */
+    public static synchronized boolean elect(Object candidate) {
+        if (leader == null) {
+            leader = candidate;
+        }
+        return leader == candidate;
+    }
+
+    public WorkerPool workerPool() {
+        return workerPool;
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    public DocumentService documentService() {
+        return documentService;
+    }
+
+    public FileService fileService() {
+        return fileService;
+    }
+
+    public ImageService imageService() {
+        return imageService;
+    }
+
+    public TemplateService templateService() {
+        return templateService;
+    }
+
+    public TemplatePool templatePool() {
+        return templatePool;
+    }
+
+    public SaveService saveService() {
+        return saveService;
+    }
+
+    public MonitoringService monitoringService() {
+        return monitoringService;
+    }
+
+    public SingleFlightCache<JsonObject> monitoringSnapshot() {
+        return monitoringSnapshot;
+    }
+
+    /**
+     * Get backend servers state of given provider, shared by the helpers of every instance
+     *
+     * @param providerId Provider identifier
+     * @return Backend servers state
+     */
+    public BackendState backendState(String providerId) {
+        return backendStates.computeIfAbsent(providerId, key -> new BackendState());
+    }
+}
@@ -0,0 +1,32 @@
+package fr.openent.lool.service;
+
+import fr.openent.lool.bean.Template;
+import io.vertx.core.Handler;
+
+import java.util.Collection;
+
+public interface TemplateService {
+
+    /**
+     * Get loaded template
+     *
+     * @param type Template type (file extension)
+     * @return Template, null when the type is not loaded
+     */
+    Template get(String type);
+
+    /**
+     * Get loaded template types
+     *
+     * @return Template types
+     */
+    Collection<String> types();
+
+    /**
+     * Load templates of given types. Loaded templates replace current templates once every template is read.
+     *
+     * @param types   Template types (file extensions)
+     * @param handler Function handler returning true when every template is loaded
+     */
+    void refresh(Collection<String> types, Handler<Boolean> handler);
+}
@@ -30,6 +30,17 @@ public interface TokenService {
      */
     void delete(String id, Handler<Either<String, JsonObject>> handler);
 
+    /**
+     * Atomically get and delete provisional token. The token is consumed only if it belongs to given user and given
+     * document, so it can not be used twice even under concurrent requests
+     *
+     * @param id         Token identifier
+     * @param userId     User identifier
+     * @param documentId Document identifier
+     * @param handler    Function handler returning consumed token. Returned object is empty if no token matched
+     */
+    void consume(String id, String userId, String documentId, Handler<Either<String, JsonObject>> handler);
+
     /**
      * @param handler
      */
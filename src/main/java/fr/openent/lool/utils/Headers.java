@@ -2,7 +2,8 @@ package fr.openent.lool.utils;
 
 public enum Headers {
     AUTO_SAVE("X-LOOL-WOPI-IsAutosave"),
-    EXIT_SAVE("X-LOOL-WOPI-IsExitSave");
+    EXIT_SAVE("X-LOOL-WOPI-IsExitSave"),
+    ITEM_VERSION("X-WOPI-ItemVersion");
 
     private final String name;
 
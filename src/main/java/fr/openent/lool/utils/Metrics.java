@@ -0,0 +1,54 @@
+package fr.openent.lool.utils;
+
+public enum Metrics {
+    TOKEN_ISSUED("token.issued"),
+    TOKEN_REUSED("token.reused"),
+    IMAGE_CACHE_HIT("image.cache.hit"),
+    IMAGE_CACHE_MISS("image.cache.miss"),
+    IMAGE_BYTES_SAVED("image.bytes.saved"),
+    IMAGE_OVERSIZED("image.oversized"),
+    GETFILE_NOT_MODIFIED("getfile.not.modified"),
+    PREFETCH_ISSUED("prefetch.issued"),
+    PREFETCH_HIT("prefetch.hit"),
+    STORAGE_READ_COALESCED("storage.read.coalesced"),
+    CONTENT_CACHE_MEMORY_HIT("content.cache.memory.hit"),
+    CONTENT_CACHE_DISK_HIT("content.cache.disk.hit"),
+    CONTENT_CACHE_MISS("content.cache.miss"),
+    CONTENT_BYTES_MEMORY("content.bytes.memory"),
+    CONTENT_BYTES_DISK("content.bytes.disk"),
+    CONTENT_BYTES_STORAGE("content.bytes.storage"),
+    SAVE_EXECUTED("save.executed"),
+    SAVE_SUPERSEDED("save.superseded"),
+    SAVE_DEDUPLICATED("save.deduplicated"),
+    SAVE_DEDUPLICATED_BYTES("save.deduplicated.bytes"),
+    STORAGE_GC_REMOVED("storage.gc.removed"),
+    STORAGE_GC_FAILED("storage.gc.failed"),
+    REVISIONS_COMPACTED("revisions.compacted"),
+    REVISIONS_RECLAIMED_BYTES("revisions.reclaimed.bytes"),
+    SAVE_SPOOLED("save.spool.spooled"),
+    SAVE_SPOOL_DRAINED("save.spool.drained"),
+    SAVE_SPOOL_FAILED("save.spool.failed"),
+    SAVE_SPOOL_DEAD_LETTER("save.spool.dead.letter"),
+    TEMPLATE_POOL_HIT("template.pool.hit"),
+    TEMPLATE_POOL_MISS("template.pool.miss"),
+    TEMPLATE_POOL_PROVISIONED("template.pool.provisioned"),
+    WORKER_REJECTED("worker.rejected"),
+    WORKER_WAIT_US("worker.wait.us"),
+    EVENTLOOP_STALLS("eventloop.stalls"),
+    EVENTLOOP_SLOW_HANDLERS("eventloop.slow.handlers"),
+    OPEN_DEGRADED("open.degraded"),
+    OPEN_REJECTED("open.rejected"),
+    AFFINITY_HIT("wopi.affinity.hit"),
+    AFFINITY_MISS("wopi.affinity.miss");
+
+    private final String key;
+
+    Metrics(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public String toString() {
+        return this.key;
+    }
+}
@@ -1,5 +1,5 @@
 import {ng, template} from 'entcore';
-import {DocumentList, EventCounter, ExtensionGraph, UserCounter} from '../widgets'
+import {DocumentList, EventCounter, ExtensionGraph, MonitoringSnapshot, UserCounter} from '../widgets'
 
 interface MonitoringScope {
     documentList: DocumentList;
@@ -7,7 +7,9 @@ interface MonitoringScope {
     accessCounter: EventCounter;
     newVersionCounter: EventCounter;
     extensionGraph: ExtensionGraph;
+    snapshot: MonitoringSnapshot;
     $apply: any;
+    $on: any;
 }
 
 export const mainController = ng.controller('MainController', ['$scope',
@@ -17,11 +19,24 @@ export const mainController = ng.controller('MainController', ['$scope',
         $scope.accessCounter = new EventCounter('ACCESS');
         $scope.newVersionCounter = new EventCounter('NEW_VERSION');
         $scope.extensionGraph = new ExtensionGraph('#extension-graph');
+        $scope.snapshot = new MonitoringSnapshot();
 
         template.open('main', 'monitoring');
-        $scope.documentList.sync().then($scope.$apply);
-        $scope.userCounter.sync().then($scope.$apply);
-        $scope.accessCounter.sync().then($scope.$apply);
-        $scope.newVersionCounter.sync().then($scope.$apply);
-        $scope.extensionGraph.sync().then($scope.$apply);
+        // Every widget is fed by the monitoring stream: a snapshot computed once for all dashboard viewers, then changes
+        $scope.snapshot.stream((snapshot: boolean) => {
+            const {documents, users, events, extensions} = $scope.snapshot.data;
+            $scope.documentList.update(documents);
+            $scope.userCounter.update(users);
+            $scope.accessCounter.update(events[$scope.accessCounter.eventName] || 0);
+            $scope.newVersionCounter.update(events[$scope.newVersionCounter.eventName] || 0);
+            if (snapshot) {
+                // Graph is drawn once by the donut directive: it is redrawn on full snapshots only
+                $scope.extensionGraph.loading = true;
+                $scope.$apply();
+                $scope.extensionGraph.update(extensions);
+                $scope.extensionGraph.loading = false;
+            }
+            $scope.$apply();
+        });
+        $scope.$on('$destroy', () => $scope.snapshot.close());
     }]);
\ No newline at end of file
@@ -11,6 +11,8 @@ export interface DocumentList {
     data: DocumentListItem[];
 
     sync(): Promise<void>;
+
+    update(data: DocumentListItem[]): void;
 }
 
 export class DocumentList extends AsyncWidget {
@@ -24,10 +26,14 @@ export class DocumentList extends AsyncWidget {
         this.loading = true;
         try {
             const {data} = await http.get('/lool/monitoring/documents');
-            this.data = data;
+            this.update(data);
         } catch (err) {
             throw err;
         }
         this.loading = false;
     }
+
+    update(data: DocumentListItem[]): void {
+        this.data = data;
+    }
 }
\ No newline at end of file
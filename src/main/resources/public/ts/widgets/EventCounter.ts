@@ -6,6 +6,8 @@ export interface EventCounter {
     eventName: string;
 
     sync(): Promise<void>;
+
+    update(count: number): void;
 }
 
 export class EventCounter extends AsyncWidget {
@@ -20,10 +22,14 @@ export class EventCounter extends AsyncWidget {
         this.loading = true;
         try {
             const {data} = await http.get(`/lool/monitoring/events/${this.eventName}/count`);
-            this.data = data.count;
+            this.update(data.count);
         } catch (err) {
             throw err;
         }
         this.loading = false;
     }
+
+    update(count: number): void {
+        this.data = count;
+    }
 }
\ No newline at end of file
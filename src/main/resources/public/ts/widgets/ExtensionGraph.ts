@@ -17,6 +17,8 @@ export interface ExtensionGraph {
     sync(): Promise<void>;
 
     render(): void;
+
+    update(data: GraphItem[]): void;
 }
 
 export class ExtensionGraph extends AsyncWidget {
@@ -51,27 +53,33 @@ export class ExtensionGraph extends AsyncWidget {
         this.loading = true;
         try {
             const {data} = await http.get('/lool/monitoring/extensions');
-            this.data = data;
-            if (this.data.length <= 5) {
-                this.data.map((object: GraphItem) => {
-                    this.labels.push(object._id);
-                    this.series.push(object.count);
-                });
-            } else {
-                let otherCount = 0;
-                for (let i = 0; i < 4; i++) {
-                    this.labels.push(this.data[i]._id);
-                    this.series.push(this.data[i].count);
-                }
-                for (let i = 4; i < this.data.length; i++) {
-                    otherCount += this.data[i].count;
-                }
-                this.labels.push(idiom.translate('lool.other'));
-                this.series.push(otherCount);
-            }
+            this.update(data);
         } catch (err) {
             throw err;
         }
         this.loading = false;
     }
+
+    update(data: GraphItem[]): void {
+        this.data = data;
+        this.labels = [];
+        this.series = [];
+        if (this.data.length <= 5) {
+            this.data.map((object: GraphItem) => {
+                this.labels.push(object._id);
+                this.series.push(object.count);
+            });
+        } else {
+            let otherCount = 0;
+            for (let i = 0; i < 4; i++) {
+                this.labels.push(this.data[i]._id);
+                this.series.push(this.data[i].count);
+            }
+            for (let i = 4; i < this.data.length; i++) {
+                otherCount += this.data[i].count;
+            }
+            this.labels.push(idiom.translate('lool.other'));
+            this.series.push(otherCount);
+        }
+    }
 }
\ No newline at end of file
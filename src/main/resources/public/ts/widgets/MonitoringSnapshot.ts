@@ -0,0 +1,107 @@
+import http from 'axios';
+import {AsyncWidget} from './AsyncWidget';
+import {DocumentListItem} from './DocumentList';
+import {GraphItem} from './ExtensionGraph';
+
+export interface Snapshot {
+    documents: DocumentListItem[];
+    users: number;
+    events: { [event: string]: number };
+    extensions: GraphItem[];
+    computed: number;
+}
+
+export interface Delta {
+    type: 'opened' | 'closed' | 'event';
+    document: string;
+    filename?: string;
+    event?: string;
+    extension?: string;
+}
+
+export interface MonitoringSnapshot {
+    data: Snapshot;
+    source: EventSource;
+
+    sync(): Promise<void>;
+
+    stream(onChange: (snapshot: boolean) => void): void;
+
+    apply(delta: Delta): void;
+
+    close(): void;
+}
+
+export class MonitoringSnapshot extends AsyncWidget {
+
+    constructor() {
+        super();
+        this.data = null;
+        this.source = null;
+    }
+
+    async sync(): Promise<void> {
+        this.loading = true;
+        try {
+            const {data} = await http.get('/lool/monitoring/snapshot');
+            this.data = data;
+        } catch (err) {
+            throw err;
+        }
+        this.loading = false;
+    }
+
+    /**
+     * Receive the snapshot then its changes from the monitoring stream. onChange is called with true when a full
+     * snapshot is received, with false when a delta is applied.
+     */
+    stream(onChange: (snapshot: boolean) => void): void {
+        this.source = new EventSource('/lool/monitoring/stream');
+        this.source.addEventListener('snapshot', (event: MessageEvent) => {
+            this.data = JSON.parse(event.data);
+            this.loading = false;
+            onChange(true);
+        });
+        this.source.addEventListener('delta', (event: MessageEvent) => {
+            if (!this.data) return;
+            this.apply(JSON.parse(event.data));
+            onChange(false);
+        });
+    }
+
+    apply(delta: Delta): void {
+        const documents = this.data.documents;
+        const index = documents.findIndex(item => item._id === delta.document);
+        switch (delta.type) {
+            case 'opened':
+                this.data.users++;
+                if (index === -1) {
+                    documents.push({_id: delta.document, filename: delta.filename, users: 1});
+                } else {
+                    documents[index].users++;
+                }
+                break;
+            case 'closed':
+                this.data.users = Math.max(0, this.data.users - 1);
+                if (index !== -1 && --documents[index].users <= 0) {
+                    documents.splice(index, 1);
+                }
+                break;
+            case 'event': {
+                this.data.events[delta.event] = (this.data.events[delta.event] || 0) + 1;
+                const extension = this.data.extensions.find(item => item._id === delta.extension);
+                if (extension) {
+                    extension.count++;
+                } else {
+                    this.data.extensions.push({_id: delta.extension, count: 1});
+                }
+                break;
+            }
+        }
+    }
+
+    close(): void {
+        if (this.source) this.source.close();
+        this.source = null;
+    }
+}
\ No newline at end of file
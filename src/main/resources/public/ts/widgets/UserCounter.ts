@@ -5,6 +5,8 @@ export interface UserCounter {
     data: number;
 
     sync(): Promise<void>;
+
+    update(count: number): void;
 }
 
 export class UserCounter extends AsyncWidget {
@@ -18,10 +20,14 @@ export class UserCounter extends AsyncWidget {
         this.loading = true;
         try {
             const {data} = await http.get('/lool/monitoring/users/count');
-            this.data = data.count;
+            this.update(data.count);
         } catch (err) {
             throw err;
         }
         this.loading = false;
     }
+
+    update(count: number): void {
+        this.data = count;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+import axios from 'axios';
+import MockAdapter from "axios-mock-adapter";
+import {MonitoringSnapshot, Snapshot} from "../MonitoringSnapshot";
+
+
+describe('MonitoringSnapshot', () => {
+    const monitoringSnapshot = new MonitoringSnapshot();
+    test('returns data when retrieve is correctly called', done => {
+        const mock = new MockAdapter(axios);
+        const data: Snapshot = {
+            documents: [{"_id": "id", "filename": "red", "users": 1}],
+            users: 1,
+            events: {"ACCESS": 2, "NEW_VERSION": 3},
+            extensions: [{"_id": "odt", "count": 2}],
+            computed: 0
+        };
+        mock.onGet('/lool/monitoring/snapshot').reply(200, data);
+        monitoringSnapshot.sync().then(() => {
+            expect(monitoringSnapshot.data).toEqual(data);
+            done();
+        });
+    });
+
+    test('returns data when retrieve is correctly called other method', done => {
+        let spy = jest.spyOn(axios, "get");
+        monitoringSnapshot.sync().then(() => {
+            expect(spy).toHaveBeenCalledWith("/lool/monitoring/snapshot");
+            done();
+        })
+    })
+
+    test('applies stream deltas to snapshot data', () => {
+        const snapshot = new MonitoringSnapshot();
+        snapshot.data = {documents: [], users: 0, events: {}, extensions: [], computed: 0};
+        snapshot.apply({type: 'opened', document: 'id', filename: 'red.odt'});
+        snapshot.apply({type: 'opened', document: 'id', filename: 'red.odt'});
+        snapshot.apply({type: 'event', document: 'id', event: 'ACCESS', extension: 'odt'});
+        expect(snapshot.data.documents).toEqual([{"_id": "id", "filename": "red.odt", "users": 2}]);
+        expect(snapshot.data.users).toEqual(2);
+        expect(snapshot.data.events).toEqual({"ACCESS": 1});
+        expect(snapshot.data.extensions).toEqual([{"_id": "odt", "count": 1}]);
+        snapshot.apply({type: 'closed', document: 'id'});
+        snapshot.apply({type: 'closed', document: 'id'});
+        expect(snapshot.data.documents).toEqual([]);
+        expect(snapshot.data.users).toEqual(0);
+    });
+});
\ No newline at end of file
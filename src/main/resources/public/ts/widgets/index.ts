@@ -1,4 +1,5 @@
 export * from './DocumentList';
 export * from './UserCounter';
 export * from './EventCounter';
-export * from './ExtensionGraph';
\ No newline at end of file
+export * from './ExtensionGraph';
+export * from './MonitoringSnapshot';
\ No newline at end of file
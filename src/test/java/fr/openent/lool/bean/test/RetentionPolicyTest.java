@@ -0,0 +1,63 @@
+package fr.openent.lool.bean.test;
+
+import fr.openent.lool.bean.RetentionPolicy;
+import fr.openent.lool.core.constants.Field;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(VertxUnitRunner.class)
+public class RetentionPolicyTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(100);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final RetentionPolicy policy = new RetentionPolicy(new JsonObject()
+            .put("keep-all-hours", 2)
+            .put("hourly-days", 1)
+            .put("max-count", 10));
+
+    private JsonObject revision(String id, long age) {
+        return new JsonObject()
+                .put(Field._ID, id)
+                .put(Field.DATE, new JsonObject().put("$date", NOW - age));
+    }
+
+    @Test
+    public void testExpiredKeepsRecentRevisions(TestContext ctx) {
+        List<JsonObject> revisions = new ArrayList<>();
+        revisions.add(revision("1", 0));
+        revisions.add(revision("2", HOUR / 2));
+        revisions.add(revision("3", HOUR));
+        ctx.assertTrue(policy.expired(revisions, NOW).isEmpty());
+    }
+
+    @Test
+    public void testExpiredThinsOlderRevisions(TestContext ctx) {
+        long bucket = HOUR * 5 + HOUR / 2;
+        List<JsonObject> revisions = new ArrayList<>();
+        revisions.add(revision("1", 0));
+        revisions.add(revision("2", bucket));
+        revisions.add(revision("3", bucket + 60000));
+        revisions.add(revision("4", TimeUnit.DAYS.toMillis(10) - HOUR));
+        revisions.add(revision("5", TimeUnit.DAYS.toMillis(10) - HOUR + 60000));
+        List<JsonObject> expired = policy.expired(revisions, NOW);
+        ctx.assertEquals(2, expired.size());
+        ctx.assertEquals("3", expired.get(0).getString(Field._ID));
+        ctx.assertEquals("5", expired.get(1).getString(Field._ID));
+    }
+
+    @Test
+    public void testExpiredCapsRevisionCount(TestContext ctx) {
+        List<JsonObject> revisions = new ArrayList<>();
+        for (int i = 0; i < 12; i++) revisions.add(revision(String.valueOf(i), i * 1000L));
+        List<JsonObject> expired = policy.expired(revisions, NOW);
+        ctx.assertEquals(2, expired.size());
+        ctx.assertEquals("10", expired.get(0).getString(Field._ID));
+    }
+}
@@ -0,0 +1,137 @@
+package fr.openent.lool.helper.test;
+
+import fr.openent.lool.helper.BackendState;
+import fr.openent.lool.helper.CapacityMonitor;
+import fr.openent.lool.helper.CapacityProbe;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(VertxUnitRunner.class)
+public class CapacityMonitorTest {
+    private static final String SERVER = "https://lool1";
+
+    private final Map<String, Future<Integer>> sessions = new HashMap<>();
+    private final CapacityProbe probe = server -> sessions.getOrDefault(server, Future.failedFuture("unknown server"));
+    private Vertx vertx;
+    private BackendState state;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        state = new BackendState();
+    }
+
+    @After
+    public void tearDown(TestContext ctx) {
+        vertx.close(ctx.asyncAssertSuccess());
+    }
+
+    private CapacityMonitor monitor(String mode) {
+        JsonObject config = new JsonObject()
+                .put("enabled", true)
+                .put("max-sessions", 10)
+                .put("high-watermark", 1.0)
+                .put("mode", mode);
+        return new CapacityMonitor(vertx, "collabora", Collections.singletonList(SERVER), probe, config, state, false);
+    }
+
+    @Test
+    public void testAdmitsUntilThreshold(TestContext ctx) {
+        Async async = ctx.async();
+        CapacityMonitor monitor = monitor("busy");
+        sessions.put(SERVER, Future.succeededFuture(8));
+        monitor.scrape().onComplete(ctx.asyncAssertSuccess(v -> {
+            ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit(SERVER));
+            ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit(SERVER));
+            ctx.assertEquals(CapacityMonitor.Admission.BUSY, monitor.admit(SERVER));
+            ctx.assertEquals(2, state.admitted(SERVER).get());
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void testSaturatedModeReadOnly(TestContext ctx) {
+        Async async = ctx.async();
+        CapacityMonitor monitor = monitor("read-only");
+        sessions.put(SERVER, Future.succeededFuture(10));
+        monitor.scrape().onComplete(ctx.asyncAssertSuccess(v -> {
+            ctx.assertEquals(CapacityMonitor.Admission.READ_ONLY, monitor.admit(SERVER));
+            ctx.assertEquals(0, state.admitted(SERVER).get());
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void testReleaseFreesSlot(TestContext ctx) {
+        Async async = ctx.async();
+        CapacityMonitor monitor = monitor("busy");
+        sessions.put(SERVER, Future.succeededFuture(9));
+        monitor.scrape().onComplete(ctx.asyncAssertSuccess(v -> {
+            ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit(SERVER));
+            ctx.assertEquals(CapacityMonitor.Admission.BUSY, monitor.admit(SERVER));
+            monitor.release(SERVER);
+            ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit(SERVER));
+            monitor.release(SERVER);
+            monitor.release(SERVER);
+            ctx.assertEquals(0, state.admitted(SERVER).get());
+            async.complete();
+        }));
+    }
+
+    @Test
+    public void testScrapeResetsAdmitted(TestContext ctx) {
+        Async async = ctx.async();
+        CapacityMonitor monitor = monitor("busy");
+        sessions.put(SERVER, Future.succeededFuture(5));
+        monitor.scrape()
+                .compose(v -> {
+                    monitor.admit(SERVER);
+                    monitor.admit(SERVER);
+                    sessions.put(SERVER, Future.succeededFuture(7));
+                    return monitor.scrape();
+                })
+                .onComplete(ctx.asyncAssertSuccess(v -> {
+                    ctx.assertEquals(7, state.scraped(SERVER).get());
+                    ctx.assertEquals(0, state.admitted(SERVER).get());
+                    async.complete();
+                }));
+    }
+
+    @Test
+    public void testFailedScrapeKeepsCounters(TestContext ctx) {
+        Async async = ctx.async();
+        CapacityMonitor monitor = monitor("busy");
+        sessions.put(SERVER, Future.succeededFuture(9));
+        monitor.scrape()
+                .compose(v -> {
+                    monitor.admit(SERVER);
+                    sessions.put(SERVER, Future.failedFuture("timeout"));
+                    return monitor.scrape();
+                })
+                .onComplete(ctx.asyncAssertSuccess(v -> {
+                    ctx.assertEquals(9, state.scraped(SERVER).get());
+                    ctx.assertEquals(CapacityMonitor.Admission.BUSY, monitor.admit(SERVER));
+                    async.complete();
+                }));
+    }
+
+    @Test
+    public void testDisabledAlwaysOpens(TestContext ctx) {
+        CapacityMonitor monitor = new CapacityMonitor(vertx, "collabora", Collections.singletonList(SERVER), probe,
+                new JsonObject().put("max-sessions", 0), state, false);
+        ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit(SERVER));
+        ctx.assertEquals(CapacityMonitor.Admission.OPEN, monitor.admit("https://unknown"));
+    }
+}
@@ -0,0 +1,51 @@
+package fr.openent.lool.helper.test;
+
+import fr.openent.lool.helper.ConsistentHashRing;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(VertxUnitRunner.class)
+public class ConsistentHashRingTest {
+    private final List<String> servers = Arrays.asList("https://lool1", "https://lool2", "https://lool3");
+    private final ConsistentHashRing ring = new ConsistentHashRing(servers, 100);
+
+    @Test
+    public void testPickIsStable(TestContext ctx) {
+        ConsistentHashRing other = new ConsistentHashRing(servers, 100);
+        for (int i = 0; i < 100; i++) {
+            ctx.assertEquals(ring.pick("document" + i), other.pick("document" + i));
+        }
+    }
+
+    @Test
+    public void testPickSpreadsKeys(TestContext ctx) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            counts.merge(ring.pick("document" + i), 1, Integer::sum);
+        }
+        ctx.assertEquals(3, counts.size());
+        counts.values().forEach(count -> ctx.assertTrue(count > 500));
+    }
+
+    @Test
+    public void testPickSkipsUnavailableMember(TestContext ctx) {
+        for (int i = 0; i < 100; i++) {
+            String key = "document" + i;
+            String picked = ring.pick(key);
+            String fallback = ring.pick(key, member -> !member.equals("https://lool2"));
+            if ("https://lool2".equals(picked)) {
+                ctx.assertNotEquals("https://lool2", fallback);
+            } else {
+                ctx.assertEquals(picked, fallback);
+            }
+        }
+        ctx.assertNull(ring.pick("document", member -> false));
+    }
+}
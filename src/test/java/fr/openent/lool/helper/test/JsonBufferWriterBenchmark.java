@@ -0,0 +1,93 @@
+package fr.openent.lool.helper.test;
+
+import fr.openent.lool.helper.JsonBufferWriter;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CheckFileInfo response encoding: JsonObject merged with server capabilities then encoded, against JsonBufferWriter
+ * appending the pre-encoded capabilities fragment. Allocation rate is reported by the GC profiler, run it with
+ * "java -cp target/test-classes:&lt;test classpath&gt; fr.openent.lool.helper.test.JsonBufferWriterBenchmark", or
+ * through the JMH runner with "-prof gc".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBufferWriterBenchmark {
+    private static final int CHECK_FILE_INFO_SIZE = 1024;
+
+    private JsonObject capabilities;
+    private Buffer capabilitiesFragment;
+
+    @Setup
+    public void setup() {
+        capabilities = new JsonObject()
+                .put("SupportsLocks", true)
+                .put("SupportsGetLock", true)
+                .put("SupportsExtendedLockLength", true)
+                .put("SupportsUpdate", true)
+                .put("SupportsRename", false)
+                .put("UserCanNotWriteRelative", true)
+                .put("DisablePrint", false)
+                .put("HideSaveOption", false);
+        capabilitiesFragment = JsonBufferWriter.fragment(capabilities);
+    }
+
+    @Benchmark
+    public Buffer jsonObject() {
+        JsonObject response = new JsonObject()
+                .put("BaseFileName", "rapport annuel 2024.odt")
+                .put("Size", 248731)
+                .put("OwnerId", "4f1c2f6e-7d1a-4b7e-9a52-0c1f7b0e9d21")
+                .put("UserId", "a8d3c0b2-51f4-4e2f-8f61-3d2c9e7b6a10")
+                .put("UserFriendlyName", "Camille Martin")
+                .put("Version", "2024-06-12 09:41:27.512")
+                .put("LastModifiedTime", "2024-06-12 09:41:27.512")
+                .put("UserCanWrite", true);
+        response.mergeIn(new JsonObject(capabilities.getMap()));
+        return Buffer.buffer(response.encode());
+    }
+
+    @Benchmark
+    public Buffer jsonBufferWriter() {
+        return new JsonBufferWriter(CHECK_FILE_INFO_SIZE, capabilities.getMap().keySet())
+                .put("BaseFileName", "rapport annuel 2024.odt")
+                .put("Size", 248731)
+                .put("OwnerId", "4f1c2f6e-7d1a-4b7e-9a52-0c1f7b0e9d21")
+                .put("UserId", "a8d3c0b2-51f4-4e2f-8f61-3d2c9e7b6a10")
+                .put("UserFriendlyName", "Camille Martin")
+                .put("Version", "2024-06-12 09:41:27.512")
+                .put("LastModifiedTime", "2024-06-12 09:41:27.512")
+                .put("UserCanWrite", true)
+                .append(capabilitiesFragment)
+                .end();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JsonBufferWriterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,52 @@
+package fr.openent.lool.helper.test;
+
+import fr.openent.lool.helper.JsonBufferWriter;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class JsonBufferWriterTest {
+
+    @Test
+    public void testWriteMatchesJsonObject(TestContext ctx) {
+        JsonObject written = new JsonObject(new JsonBufferWriter(16)
+                .put("BaseFileName", "rapport \"final\"\\2024\n\u0001é.odt")
+                .put("Size", 1234)
+                .put("OwnerId", (String) null)
+                .put("UserCanWrite", true)
+                .end());
+        JsonObject expected = new JsonObject()
+                .put("BaseFileName", "rapport \"final\"\\2024\n\u0001é.odt")
+                .put("Size", 1234)
+                .putNull("OwnerId")
+                .put("UserCanWrite", true);
+        ctx.assertEquals(expected, written);
+    }
+
+    @Test
+    public void testFragmentOverridesFields(TestContext ctx) {
+        JsonObject capabilities = new JsonObject().put("UserCanWrite", false).put("SupportsLocks", true);
+        JsonObject written = new JsonObject(new JsonBufferWriter(16, capabilities.getMap().keySet())
+                .put("BaseFileName", "document.odt")
+                .put("UserCanWrite", true)
+                .append(JsonBufferWriter.fragment(capabilities))
+                .end());
+        JsonObject expected = new JsonObject()
+                .put("BaseFileName", "document.odt")
+                .put("UserCanWrite", true)
+                .mergeIn(capabilities);
+        ctx.assertEquals(expected, written);
+    }
+
+    @Test
+    public void testEmptyFragment(TestContext ctx) {
+        JsonObject written = new JsonObject(new JsonBufferWriter(16)
+                .put("Size", 1)
+                .append(JsonBufferWriter.fragment(new JsonObject()))
+                .end());
+        ctx.assertEquals(new JsonObject().put("Size", 1), written);
+    }
+}
@@ -94,6 +94,24 @@ public class DefaultTokenServiceTest {
         defaultTokenService.delete(Field.ID, null);
     }
 
+    @Test
+    public void testConsume(TestContext ctx) {
+        Async async = ctx.async();
+        String expectedCollection = "document_token";
+        JsonObject expectedParams = new JsonObject()
+                .put(Field._ID, Field.ID)
+                .put("document", "document_id")
+                .put("user", "user_id");
+        vertx.eventBus().consumer("fr.openent.lool", message -> {
+            JsonObject body = (JsonObject) message.body();
+            ctx.assertEquals(expectedCollection, body.getString("collection"));
+            ctx.assertEquals(expectedParams, body.getJsonObject("matcher"));
+            ctx.assertTrue(body.getBoolean("remove"));
+            async.complete();
+        });
+        defaultTokenService.consume(Field.ID, "user_id", "document_id", null);
+    }
+
     @Test
     public void testClean(TestContext ctx) {
         Async async = ctx.async();